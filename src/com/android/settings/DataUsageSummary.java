@@ -53,6 +53,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
+import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.ComponentName;
@@ -79,7 +80,9 @@ import android.net.NetworkTemplate;
 import android.net.TrafficStats;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.INetworkManagementService;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.RemoteException;
@@ -98,6 +101,7 @@ import android.text.format.Time;
 import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseLongArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -144,7 +148,11 @@ import com.google.android.collect.Lists;
 import libcore.util.Objects;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 
@@ -189,6 +197,8 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
     private static final int LOADER_CHART_DATA = 2;
     private static final int LOADER_SUMMARY = 3;
 
+    private static final int MAX_CYCLES = 24;
+
     private INetworkManagementService mNetworkService;
     private INetworkStatsService mStatsService;
     private NetworkPolicyManager mPolicyManager;
@@ -255,6 +265,10 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
     private Intent mAppSettingsIntent;
 
     private NetworkPolicyEditor mPolicyEditor;
+    private boolean mPoliciesRead;
+
+    private AsyncTask<Void, Void, Boolean> mPolicyReadTask;
+    private AsyncTask<Void, Void, ArrayList<CycleItem>> mCycleListTask;
 
     private String mCurrentTab = null;
     private String mIntentTab = null;
@@ -284,8 +298,32 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
 
         mPrefs = getActivity().getSharedPreferences(PREF_FILE, Context.MODE_PRIVATE);
 
+        // policies are only needed once chart data has loaded, so read them
+        // alongside the first chart query instead of blocking here.
         mPolicyEditor = new NetworkPolicyEditor(mPolicyManager);
-        mPolicyEditor.read();
+        mPolicyReadTask = new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                try {
+                    mPolicyEditor.read();
+                    return true;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "problem reading policies", e);
+                    return false;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean result) {
+                mPolicyReadTask = null;
+                mPoliciesRead = result;
+                if (!isAdded()) return;
+                showDeferredPolicyDialogs();
+                if (mPoliciesRead && mChartData != null) {
+                    updatePolicy(true);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
         try {
             if (!mNetworkService.isBandwidthControlEnabled()) {
@@ -619,6 +657,15 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
             mUidDetailProvider = null;
         }
 
+        if (mPolicyReadTask != null) {
+            mPolicyReadTask.cancel(false);
+            mPolicyReadTask = null;
+        }
+        if (mCycleListTask != null) {
+            mCycleListTask.cancel(false);
+            mCycleListTask = null;
+        }
+
         TrafficStats.closeQuietly(mStatsSession);
 
         super.onDestroy();
@@ -828,6 +875,51 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         mBinding = false;
     }
 
+    /**
+     * Return {@link #mPolicyEditor}, or null until the policies have been
+     * read successfully.
+     */
+    private NetworkPolicyEditor getPolicyEditor() {
+        return mPoliciesRead ? mPolicyEditor : null;
+    }
+
+    /**
+     * Keep a policy dialog restored before the policies have been read hidden,
+     * until {@link #showDeferredPolicyDialogs()} shows or dismisses it.
+     */
+    private static void deferUntilPoliciesRead(DialogFragment dialog) {
+        final DataUsageSummary target = (DataUsageSummary) dialog.getTargetFragment();
+        if (target != null && target.getPolicyEditor() == null) {
+            dialog.setShowsDialog(false);
+        }
+    }
+
+    /**
+     * Show again the policy dialogs hidden by {@link #deferUntilPoliciesRead},
+     * or dismiss them if the policies could not be read.
+     */
+    private void showDeferredPolicyDialogs() {
+        final FragmentManager fm = getFragmentManager();
+        final String[] tags = new String[] {
+                TAG_CONFIRM_LIMIT, TAG_CYCLE_EDITOR, TAG_WARNING_EDITOR, TAG_LIMIT_EDITOR };
+        for (String tag : tags) {
+            final DialogFragment dialog = (DialogFragment) fm.findFragmentByTag(tag);
+            if (dialog == null || dialog.getShowsDialog()) continue;
+
+            dialog.dismiss();
+            if (!mPoliciesRead) continue;
+            if (TAG_CONFIRM_LIMIT.equals(tag)) {
+                ConfirmLimitFragment.show(this);
+            } else if (TAG_CYCLE_EDITOR.equals(tag)) {
+                CycleEditorFragment.show(this);
+            } else if (TAG_WARNING_EDITOR.equals(tag)) {
+                WarningEditorFragment.show(this);
+            } else {
+                LimitEditorFragment.show(this);
+            }
+        }
+    }
+
     private boolean isAppDetailMode() {
         return mCurrentApp != null;
     }
@@ -1034,6 +1126,9 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
      * current {@link #mTemplate}.
      */
     private void updatePolicy(boolean refreshCycle) {
+        // called again with refreshCycle once policies have been read
+        if (!mPoliciesRead) return;
+
         boolean dataEnabledVisible = mDataEnabledSupported;
         boolean disableAtLimitVisible = mDisableAtLimitSupported;
 
@@ -1084,12 +1179,18 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
 
     /**
      * Rebuild {@link #mCycleAdapter} based on {@link NetworkPolicy#cycleDay}
-     * and available {@link NetworkStatsHistory} data. Always selects the newest
-     * item, updating the inspection range on {@link #mChart}.
+     * and available {@link NetworkStatsHistory} data. The current cycle is
+     * bound right away, older cycles are computed in the background and
+     * appended once ready. Always selects the newest item, updating the
+     * inspection range on {@link #mChart}.
      */
-    private void updateCycleList(NetworkPolicy policy) {
+    private void updateCycleList(final NetworkPolicy policy) {
         // stash away currently selected cycle to try restoring below
         final CycleItem previousItem = (CycleItem) mCycleSpinner.getSelectedItem();
+        if (mCycleListTask != null) {
+            mCycleListTask.cancel(false);
+            mCycleListTask = null;
+        }
         mCycleAdapter.clear();
 
         final Context context = mCycleSpinner.getContext();
@@ -1105,18 +1206,17 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         if (historyStart == Long.MAX_VALUE) historyStart = now;
         if (historyEnd == Long.MIN_VALUE) historyEnd = now + 1;
 
+        // only compute the current cycle here, walking back through older
+        // cycles is left to the task below.
+        CycleItem currentItem = null;
         boolean hasCycles = false;
         if (policy != null) {
             // find the next cycle boundary
-            long cycleEnd = computeNextCycleBoundary(historyEnd, policy);
-
-            // walk backwards, generating all valid cycle ranges
-            while (mCycleAdapter.getCount() < 24 && cycleEnd > historyStart) {
+            final long cycleEnd = computeNextCycleBoundary(historyEnd, policy);
+            if (cycleEnd > historyStart) {
                 final long cycleStart = computeLastCycleBoundary(cycleEnd, policy);
-                Log.d(TAG, "generating cs=" + cycleStart + " to ce=" + cycleEnd + " waiting for hs="
-                        + historyStart);
-                mCycleAdapter.add(new CycleItem(context, cycleStart, cycleEnd));
-                cycleEnd = cycleStart;
+                currentItem = new CycleItem(context, cycleStart, cycleEnd);
+                mCycleAdapter.add(currentItem);
                 hasCycles = true;
             }
 
@@ -1126,17 +1226,73 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
 
         if (!hasCycles) {
             // no policy defined cycles; show entry for each four-week period
-            long cycleEnd = historyEnd;
-            while (cycleEnd > historyStart) {
-                final long cycleStart = cycleEnd - (DateUtils.WEEK_IN_MILLIS * 4);
-                mCycleAdapter.add(new CycleItem(context, cycleStart, cycleEnd));
-                cycleEnd = cycleStart;
+            if (historyEnd > historyStart) {
+                currentItem = new CycleItem(context,
+                        historyEnd - (DateUtils.WEEK_IN_MILLIS * 4), historyEnd);
+                mCycleAdapter.add(currentItem);
             }
-
             mCycleAdapter.setChangePossible(false);
         }
 
-        // force pick the current cycle (first item)
+        // the previous selection may be one of the older cycles, only restore
+        // it once they are known.
+        final boolean selectNow = currentItem == null || previousItem == null
+                || previousItem.compareTo(currentItem) >= 0;
+        if (selectNow) {
+            selectCycle(previousItem);
+        }
+        if (currentItem == null) {
+            return;
+        }
+
+        final long firstStart = historyStart;
+        final long lastEnd = currentItem.start;
+        final boolean policyCycles = hasCycles;
+        mCycleListTask = new AsyncTask<Void, Void, ArrayList<CycleItem>>() {
+            @Override
+            protected ArrayList<CycleItem> doInBackground(Void... params) {
+                final ArrayList<CycleItem> items = new ArrayList<CycleItem>();
+                long cycleEnd = lastEnd;
+                if (policyCycles) {
+                    // walk backwards, generating all valid cycle ranges
+                    while (items.size() < MAX_CYCLES - 1 && cycleEnd > firstStart
+                            && !isCancelled()) {
+                        final long cycleStart = computeLastCycleBoundary(cycleEnd, policy);
+                        if (LOGD) {
+                            Log.d(TAG, "generating cs=" + cycleStart + " to ce=" + cycleEnd
+                                    + " waiting for hs=" + firstStart);
+                        }
+                        items.add(new CycleItem(context, cycleStart, cycleEnd));
+                        cycleEnd = cycleStart;
+                    }
+                } else {
+                    while (cycleEnd > firstStart && !isCancelled()) {
+                        final long cycleStart = cycleEnd - (DateUtils.WEEK_IN_MILLIS * 4);
+                        items.add(new CycleItem(context, cycleStart, cycleEnd));
+                        cycleEnd = cycleStart;
+                    }
+                }
+                return items;
+            }
+
+            @Override
+            protected void onPostExecute(ArrayList<CycleItem> items) {
+                mCycleListTask = null;
+                if (!isAdded()) return;
+
+                mCycleAdapter.addCycles(items);
+                if (!selectNow) {
+                    selectCycle(previousItem);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Select the {@link CycleItem} nearest the given one, or the newest one
+     * when null, and kick off the detail loader.
+     */
+    private void selectCycle(CycleItem previousItem) {
         if (mCycleAdapter.getCount() > 0) {
             final int position = mCycleAdapter.findNearestPosition(previousItem);
             mCycleSpinner.setSelection(position);
@@ -1362,13 +1518,15 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
             final int[] restrictedUids = mPolicyManager.getUidsWithPolicy(
                     POLICY_REJECT_METERED_BACKGROUND);
-            mAdapter.bindStats(data, restrictedUids);
+            final SummaryForAllUidLoader summaryLoader = (SummaryForAllUidLoader) loader;
+            mAdapter.bindStats(data, restrictedUids, summaryLoader.getTemplate(),
+                    summaryLoader.getStart(), summaryLoader.getEnd());
             updateEmptyVisible();
         }
 
         @Override
         public void onLoaderReset(Loader<NetworkStats> loader) {
-            mAdapter.bindStats(null, new int[0]);
+            mAdapter.bindStats(null, new int[0], null, 0, 0);
             updateEmptyVisible();
         }
 
@@ -1496,6 +1654,17 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
             updateChange();
         }
 
+        /**
+         * Append older cycles, keeping the change item last.
+         */
+        public void addCycles(List<CycleItem> cycles) {
+            setNotifyOnChange(false);
+            remove(mChangeItem);
+            addAll(cycles);
+            setNotifyOnChange(true);
+            updateChange();
+        }
+
         private void updateChange() {
             remove(mChangeItem);
             if (mChangePossible && mChangeVisible) {
@@ -1592,28 +1761,56 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
      */
     public static class DataUsageAdapter extends BaseAdapter {
         private final UidDetailProvider mProvider;
+        private final UidDetailResolver mResolver;
         private final int mInsetSide;
         private final UserManager mUm;
 
         private ArrayList<AppItem> mItems = Lists.newArrayList();
         private long mLargest;
 
+        // Items of the last bound stats by collapse key, reused as long as the
+        // template and cycle stay the same.
+        private final SparseArray<AppItem> mKnownItems = new SparseArray<AppItem>();
+        private final SparseLongArray mTotals = new SparseLongArray();
+        private final AppItem mTitleItem = new AppItem();
+        private NetworkTemplate mTemplate;
+        private long mStart;
+        private long mEnd;
+
         public DataUsageAdapter(final UserManager userManager, UidDetailProvider provider, int insetSide) {
             mProvider = checkNotNull(provider);
+            mResolver = new UidDetailResolver(provider);
             mInsetSide = insetSide;
             mUm = userManager;
+            mTitleItem.category = AppItem.CATEGORY_APP_TITLE;
         }
 
         /**
          * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+         *
+         * @param template the template the stats were loaded for.
+         * @param start the start of the cycle the stats were loaded for.
+         * @param end the end of the cycle the stats were loaded for.
          */
-        public void bindStats(NetworkStats stats, int[] restrictedUids) {
+        public void bindStats(NetworkStats stats, int[] restrictedUids, NetworkTemplate template,
+                long start, long end) {
+            if (!Objects.equal(mTemplate, template) || mStart != start || mEnd != end) {
+                // The uids of the items are only valid for the same template and cycle
+                mKnownItems.clear();
+                mTemplate = template;
+                mStart = start;
+                mEnd = end;
+            }
             mItems.clear();
+            mTotals.clear();
             mLargest = 0;
 
             final int currentUserId = ActivityManager.getCurrentUser();
             final List<UserHandle> profiles = mUm.getUserProfiles();
-            final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
+            final BitSet profileUserIds = new BitSet();
+            for (int i = 0; i < profiles.size(); i++) {
+                profileUserIds.set(profiles.get(i).getIdentifier());
+            }
 
             NetworkStats.Entry entry = null;
             final int size = stats != null ? stats.size() : 0;
@@ -1622,17 +1819,17 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
 
                 // Decide how to collapse items together
                 final int uid = entry.uid;
+                final long bytes = entry.rxBytes + entry.txBytes;
 
                 final int collapseKey;
                 final int category;
                 final int userId = UserHandle.getUserId(uid);
                 if (UserHandle.isApp(uid)) {
-                    if (profiles.contains(new UserHandle(userId))) {
+                    if (profileUserIds.get(userId)) {
                         if (userId != currentUserId) {
                             // Add to a managed user item.
                             final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                            accumulate(managedKey, knownItems, entry,
-                                    AppItem.CATEGORY_USER);
+                            accumulate(managedKey, uid, bytes, AppItem.CATEGORY_USER);
                         }
                         // Add to app item.
                         collapseKey = uid;
@@ -1649,31 +1846,42 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
                     collapseKey = android.os.Process.SYSTEM_UID;
                     category = AppItem.CATEGORY_APP;
                 }
-                accumulate(collapseKey, knownItems, entry, category);
+                accumulate(collapseKey, uid, bytes, category);
+            }
+
+            final int count = mTotals.size();
+            for (int i = 0; i < count; i++) {
+                final AppItem item = mKnownItems.get(mTotals.keyAt(i));
+                item.total = mTotals.valueAt(i);
+                item.restricted = false;
+                mItems.add(item);
+                if (mLargest < item.total) {
+                    mLargest = item.total;
+                }
             }
 
             final int restrictedUidsMax = restrictedUids.length;
             for (int i = 0; i < restrictedUidsMax; ++i) {
                 final int uid = restrictedUids[i];
                 // Only splice in restricted state for current user or managed users
-                if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
+                if (!profileUserIds.get(UserHandle.getUserId(uid))) {
                     continue;
                 }
 
-                AppItem item = knownItems.get(uid);
+                AppItem item = mKnownItems.get(uid);
                 if (item == null) {
                     item = new AppItem(uid);
+                    mKnownItems.put(item.key, item);
+                }
+                if (mTotals.indexOfKey(uid) < 0) {
                     item.total = -1;
                     mItems.add(item);
-                    knownItems.put(item.key, item);
                 }
                 item.restricted = true;
             }
 
             if (!mItems.isEmpty()) {
-                final AppItem title = new AppItem();
-                title.category = AppItem.CATEGORY_APP_TITLE;
-                mItems.add(title);
+                mItems.add(mTitleItem);
             }
 
             Collections.sort(mItems);
@@ -1685,26 +1893,20 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
          * Creates the item if needed.
          *
          * @param collapseKey the collapse key used to map the item.
-         * @param knownItems collection of known (already existing) items.
-         * @param entry the network stats entry to extract data usage from.
+         * @param uid the uid of the network stats entry.
+         * @param bytes the data usage of the network stats entry.
          * @param itemCategory the item is categorized on the list view by this category. Must be
          *            either AppItem.APP_ITEM_CATEGORY or AppItem.MANAGED_USER_ITEM_CATEGORY
          */
-        private void accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-                NetworkStats.Entry entry, int itemCategory) {
-            final int uid = entry.uid;
-            AppItem item = knownItems.get(collapseKey);
+        private void accumulate(int collapseKey, int uid, long bytes, int itemCategory) {
+            AppItem item = mKnownItems.get(collapseKey);
             if (item == null) {
                 item = new AppItem(collapseKey);
-                item.category = itemCategory;
-                mItems.add(item);
-                knownItems.put(item.key, item);
+                mKnownItems.put(item.key, item);
             }
+            item.category = itemCategory;
             item.addUid(uid);
-            item.total += entry.rxBytes + entry.txBytes;
-            if (mLargest < item.total) {
-                mLargest = item.total;
-            }
+            mTotals.put(collapseKey, mTotals.get(collapseKey) + bytes);
         }
 
         @Override
@@ -1785,7 +1987,7 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
                         android.R.id.progress);
 
                 // kick off async load of app details
-                UidDetailTask.bindView(mProvider, item, convertView);
+                mResolver.bindView(item, convertView);
 
                 if (item.restricted && item.total <= 0) {
                     text1.setText(R.string.data_usage_app_restricted);
@@ -1855,7 +2057,9 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         public static void show(DataUsageSummary parent) {
             if (!parent.isAdded()) return;
 
-            final NetworkPolicy policy = parent.mPolicyEditor.getPolicy(parent.mTemplate);
+            final NetworkPolicyEditor editor = parent.getPolicyEditor();
+            if (editor == null) return;
+            final NetworkPolicy policy = editor.getPolicy(parent.mTemplate);
             if (policy == null) return;
 
             final Resources res = parent.getResources();
@@ -1892,6 +2096,12 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
             dialog.show(parent.getFragmentManager(), TAG_CONFIRM_LIMIT);
         }
 
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            deferUntilPoliciesRead(this);
+        }
+
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
             final Context context = getActivity();
@@ -1935,11 +2145,17 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
             dialog.show(parent.getFragmentManager(), TAG_CYCLE_EDITOR);
         }
 
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            deferUntilPoliciesRead(this);
+        }
+
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
             final Context context = getActivity();
             final DataUsageSummary target = (DataUsageSummary) getTargetFragment();
-            final NetworkPolicyEditor editor = target.mPolicyEditor;
+            final NetworkPolicyEditor editor = target.getPolicyEditor();
 
             final AlertDialog.Builder builder = new AlertDialog.Builder(context);
             final LayoutInflater dialogInflater = LayoutInflater.from(builder.getContext());
@@ -1994,11 +2210,17 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
             dialog.show(parent.getFragmentManager(), TAG_WARNING_EDITOR);
         }
 
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            deferUntilPoliciesRead(this);
+        }
+
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
             final Context context = getActivity();
             final DataUsageSummary target = (DataUsageSummary) getTargetFragment();
-            final NetworkPolicyEditor editor = target.mPolicyEditor;
+            final NetworkPolicyEditor editor = target.getPolicyEditor();
 
             final AlertDialog.Builder builder = new AlertDialog.Builder(context);
             final LayoutInflater dialogInflater = LayoutInflater.from(builder.getContext());
@@ -2057,11 +2279,17 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
             dialog.show(parent.getFragmentManager(), TAG_LIMIT_EDITOR);
         }
 
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            deferUntilPoliciesRead(this);
+        }
+
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
             final Context context = getActivity();
             final DataUsageSummary target = (DataUsageSummary) getTargetFragment();
-            final NetworkPolicyEditor editor = target.mPolicyEditor;
+            final NetworkPolicyEditor editor = target.getPolicyEditor();
 
             final AlertDialog.Builder builder = new AlertDialog.Builder(context);
             final LayoutInflater dialogInflater = LayoutInflater.from(builder.getContext());
@@ -2262,33 +2490,73 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
     }
 
     /**
-     * Background task that loads {@link UidDetail}, binding to
-     * {@link DataUsageAdapter} row item when finished.
+     * Loads {@link UidDetail} in the background, binding to {@link DataUsageAdapter}
+     * row items when finished. Each uid is resolved once for all the rows waiting
+     * for it, the rows bound last (the visible ones) are resolved first, and the
+     * requests whose rows have all been recycled are dropped.
      */
-    private static class UidDetailTask extends AsyncTask<Void, Void, UidDetail> {
+    private static class UidDetailResolver implements Runnable {
         private final UidDetailProvider mProvider;
-        private final AppItem mItem;
-        private final View mTarget;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        // Rows waiting for each uid, by request order.  Synchronized on mPending.
+        private final LinkedHashMap<Integer, ArrayList<View>> mPending =
+                new LinkedHashMap<Integer, ArrayList<View>>();
+        // Rows waiting for each uid being resolved.  Synchronized on mPending.
+        private final HashMap<Integer, ArrayList<View>> mResolving =
+                new HashMap<Integer, ArrayList<View>>();
+        private boolean mRunning;
 
-        private UidDetailTask(UidDetailProvider provider, AppItem item, View target) {
+        private UidDetailResolver(UidDetailProvider provider) {
             mProvider = checkNotNull(provider);
-            mItem = checkNotNull(item);
-            mTarget = checkNotNull(target);
         }
 
-        public static void bindView(
-                UidDetailProvider provider, AppItem item, View target) {
-            final UidDetailTask existing = (UidDetailTask) target.getTag();
-            if (existing != null) {
-                existing.cancel(false);
+        public void bindView(AppItem item, View target) {
+            final Integer key = item.key;
+            final Integer existing = (Integer) target.getTag();
+            synchronized (mPending) {
+                if (existing != null && !existing.equals(key)) {
+                    final ArrayList<View> targets = mPending.get(existing);
+                    if (targets != null && targets.remove(target) && targets.isEmpty()) {
+                        mPending.remove(existing);
+                    }
+                }
             }
 
-            final UidDetail cachedDetail = provider.getUidDetail(item.key, false);
+            final UidDetail cachedDetail = mProvider.getUidDetail(key, false);
             if (cachedDetail != null) {
+                target.setTag(null);
                 bindView(cachedDetail, target);
-            } else {
-                target.setTag(new UidDetailTask(provider, item, target).executeOnExecutor(
-                        AsyncTask.THREAD_POOL_EXECUTOR));
+                return;
+            }
+
+            bindView(null, target);
+            // Show the label right away when only the icon was evicted
+            final UidDetail cachedLabels = mProvider.getCachedUidLabels(key);
+            if (cachedLabels != null) {
+                final TextView title = (TextView) target.findViewById(android.R.id.title);
+                title.setText(cachedLabels.label);
+                title.setContentDescription(cachedLabels.contentDescription);
+            }
+
+            target.setTag(key);
+            synchronized (mPending) {
+                ArrayList<View> targets = mResolving.get(key);
+                if (targets == null) {
+                    // Move the request last, so that it is resolved first
+                    targets = mPending.remove(key);
+                    if (targets == null) {
+                        targets = new ArrayList<View>();
+                    }
+                    mPending.put(key, targets);
+                }
+                if (!targets.contains(target)) {
+                    targets.add(target);
+                }
+                if (!mRunning) {
+                    mRunning = true;
+                    AsyncTask.THREAD_POOL_EXECUTOR.execute(this);
+                }
             }
         }
 
@@ -2307,18 +2575,48 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         }
 
         @Override
-        protected void onPreExecute() {
-            bindView(null, mTarget);
-        }
+        public void run() {
+            while (true) {
+                Integer key = null;
+                synchronized (mPending) {
+                    final Iterator<Integer> it = mPending.keySet().iterator();
+                    while (it.hasNext()) {
+                        key = it.next();
+                    }
+                    if (key == null) {
+                        mRunning = false;
+                        return;
+                    }
+                    mResolving.put(key, mPending.remove(key));
+                }
 
-        @Override
-        protected UidDetail doInBackground(Void... params) {
-            return mProvider.getUidDetail(mItem.key, true);
+                final Integer resolvedKey = key;
+                final UidDetail detail = mProvider.getUidDetail(key, true);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(resolvedKey, detail);
+                    }
+                });
+            }
         }
 
-        @Override
-        protected void onPostExecute(UidDetail result) {
-            bindView(result, mTarget);
+        private void deliver(Integer key, UidDetail detail) {
+            final ArrayList<View> targets;
+            synchronized (mPending) {
+                targets = mResolving.remove(key);
+            }
+            if (targets == null) {
+                return;
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                final View target = targets.get(i);
+                // Skip the rows that have been recycled for another uid since
+                if (key.equals(target.getTag())) {
+                    target.setTag(null);
+                    bindView(detail, target);
+                }
+            }
         }
     }
 
@@ -2454,24 +2752,29 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         // build combined list of all limited networks
         final ArrayList<CharSequence> limited = Lists.newArrayList();
 
+        final NetworkPolicyEditor policyEditor = getPolicyEditor();
+        if (policyEditor == null) {
+            // not known until policies have been read
+            return limited;
+        }
         final TelephonyManager tele = TelephonyManager.from(context);
         if (tele.getSimState() == SIM_STATE_READY) {
             final String subscriberId = getActiveSubscriberId(context);
-            if (mPolicyEditor.hasLimitedPolicy(buildTemplateMobileAll(subscriberId))) {
+            if (policyEditor.hasLimitedPolicy(buildTemplateMobileAll(subscriberId))) {
                 limited.add(getText(R.string.data_usage_list_mobile));
             }
-            if (mPolicyEditor.hasLimitedPolicy(buildTemplateMobile3gLower(subscriberId))) {
+            if (policyEditor.hasLimitedPolicy(buildTemplateMobile3gLower(subscriberId))) {
                 limited.add(getText(R.string.data_usage_tab_3g));
             }
-            if (mPolicyEditor.hasLimitedPolicy(buildTemplateMobile4g(subscriberId))) {
+            if (policyEditor.hasLimitedPolicy(buildTemplateMobile4g(subscriberId))) {
                 limited.add(getText(R.string.data_usage_tab_4g));
             }
         }
 
-        if (mPolicyEditor.hasLimitedPolicy(buildTemplateWifiWildcard())) {
+        if (policyEditor.hasLimitedPolicy(buildTemplateWifiWildcard())) {
             limited.add(getText(R.string.data_usage_tab_wifi));
         }
-        if (mPolicyEditor.hasLimitedPolicy(buildTemplateEthernet())) {
+        if (policyEditor.hasLimitedPolicy(buildTemplateEthernet())) {
             limited.add(getText(R.string.data_usage_tab_ethernet));
         }
 
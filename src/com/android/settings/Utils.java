@@ -44,7 +44,9 @@ import android.content.res.Resources.NotFoundException;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.PorterDuff;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.ConnectivityManager;
 import android.net.LinkProperties;
@@ -1356,4 +1358,46 @@ public final class Utils {
         return !TextUtils.isEmpty(name);
     }
 
+    /**
+     * Returns the memory taken by the given icon, for sizing caches of icons. Icons that are not
+     * backed by a bitmap are assumed to take an ARGB_8888 bitmap of iconSize.
+     */
+    public static int getIconByteCount(Drawable icon, int iconSize) {
+        if (icon instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getByteCount();
+            }
+        }
+        return iconSize * iconSize * 4;
+    }
+
+    /**
+     * Renders the given icon into a bitmap no larger than iconSize, so that the full resolution
+     * icon is not kept in memory by caches of icons.
+     */
+    public static Drawable scaleIcon(Resources res, Drawable icon, int iconSize) {
+        if (icon == null) {
+            return null;
+        }
+        final int width = icon.getIntrinsicWidth();
+        final int height = icon.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            return icon;
+        }
+        if (width <= iconSize && height <= iconSize && icon instanceof BitmapDrawable) {
+            return icon;
+        }
+
+        final float scale = Math.min(1f, (float) iconSize / Math.max(width, height));
+        final int scaledWidth = Math.max(1, Math.round(width * scale));
+        final int scaledHeight = Math.max(1, Math.round(height * scale));
+        final Bitmap bitmap = Bitmap.createBitmap(scaledWidth, scaledHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        icon.setBounds(0, 0, scaledWidth, scaledHeight);
+        icon.draw(canvas);
+        canvas.setBitmap(null);
+        return new BitmapDrawable(res, bitmap);
+    }
 }
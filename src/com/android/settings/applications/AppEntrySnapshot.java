@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * On-disk snapshot of the {@link ApplicationsState.AppEntry} labels and last known sizes, so
+ * that they can be shown right away on a cold start instead of being loaded again from the
+ * PackageManager.
+ *
+ * A snapshot is only valid for the user and the locale it was written for, and an entry is only
+ * valid as long as the update time of its package is the same.
+ */
+class AppEntrySnapshot {
+    static final String TAG = "AppEntrySnapshot";
+
+    // Bump this when the file format changes, older snapshots are then ignored
+    private static final int VERSION = 1;
+
+    private static final String FILE_NAME_PREFIX = "app_entries_";
+
+    /**
+     * The saved state of one AppEntry
+     */
+    static class Entry {
+        String packageName;
+        long updateTime;
+        String label;
+        String normalizedLabel;
+        long size;
+        long internalSize;
+        long externalSize;
+        long cacheSize;
+        long codeSize;
+        long dataSize;
+        long externalCodeSize;
+        long externalDataSize;
+        long externalCacheSize;
+
+        /**
+         * Captures the state of an entry. The caller must hold the entry lock.
+         */
+        static Entry fromAppEntryLocked(ApplicationsState.AppEntry appEntry) {
+            final Entry entry = new Entry();
+            entry.packageName = appEntry.info.packageName;
+            entry.updateTime = getUpdateTime(appEntry);
+            entry.label = appEntry.label;
+            entry.normalizedLabel = appEntry.normalizedLabel;
+            entry.size = appEntry.size;
+            entry.internalSize = appEntry.internalSize;
+            entry.externalSize = appEntry.externalSize;
+            entry.cacheSize = appEntry.cacheSize;
+            entry.codeSize = appEntry.codeSize;
+            entry.dataSize = appEntry.dataSize;
+            entry.externalCodeSize = appEntry.externalCodeSize;
+            entry.externalDataSize = appEntry.externalDataSize;
+            entry.externalCacheSize = appEntry.externalCacheSize;
+            return entry;
+        }
+
+        /**
+         * @return true if the saved state is still the one of the given entry package.
+         */
+        boolean isValidFor(ApplicationsState.AppEntry appEntry) {
+            return packageName.equals(appEntry.info.packageName)
+                    && updateTime != 0 && updateTime == getUpdateTime(appEntry);
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(packageName);
+            out.writeLong(updateTime);
+            out.writeUTF(label);
+            out.writeBoolean(normalizedLabel != null);
+            if (normalizedLabel != null) {
+                out.writeUTF(normalizedLabel);
+            }
+            out.writeLong(size);
+            out.writeLong(internalSize);
+            out.writeLong(externalSize);
+            out.writeLong(cacheSize);
+            out.writeLong(codeSize);
+            out.writeLong(dataSize);
+            out.writeLong(externalCodeSize);
+            out.writeLong(externalDataSize);
+            out.writeLong(externalCacheSize);
+        }
+
+        private static Entry readFrom(DataInputStream in) throws IOException {
+            final Entry entry = new Entry();
+            entry.packageName = in.readUTF();
+            entry.updateTime = in.readLong();
+            entry.label = in.readUTF();
+            entry.normalizedLabel = in.readBoolean() ? in.readUTF() : null;
+            entry.size = in.readLong();
+            entry.internalSize = in.readLong();
+            entry.externalSize = in.readLong();
+            entry.cacheSize = in.readLong();
+            entry.codeSize = in.readLong();
+            entry.dataSize = in.readLong();
+            entry.externalCodeSize = in.readLong();
+            entry.externalDataSize = in.readLong();
+            entry.externalCacheSize = in.readLong();
+            return entry;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final int mUserId;
+
+    AppEntrySnapshot(File dir, int userId) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME_PREFIX + userId));
+        mUserId = userId;
+    }
+
+    /**
+     * The package update time. The PackageManager replaces the apk on every update, so its
+     * modification time is used as it does not need an IPC.
+     */
+    static long getUpdateTime(ApplicationsState.AppEntry appEntry) {
+        return appEntry.apkFile.lastModified();
+    }
+
+    /**
+     * @return the saved entries by package name, or null if there is no valid snapshot for the
+     *         given locale.
+     */
+    HashMap<String, Entry> read(String locale) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION || in.readInt() != mUserId
+                    || !locale.equals(in.readUTF())) {
+                return null;
+            }
+            final int count = in.readInt();
+            final HashMap<String, Entry> entries = new HashMap<String, Entry>(count);
+            for (int i=0; i<count; i++) {
+                final Entry entry = Entry.readFrom(in);
+                entries.put(entry.packageName, entry);
+            }
+            return entries;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read snapshot " + mFile.getBaseFile(), e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    void write(String locale, List<Entry> entries) {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(mUserId);
+            out.writeUTF(locale);
+            final int count = entries.size();
+            out.writeInt(count);
+            for (int i=0; i<count; i++) {
+                entries.get(i).writeTo(out);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write snapshot " + mFile.getBaseFile(), e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
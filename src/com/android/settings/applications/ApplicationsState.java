@@ -115,13 +115,30 @@ public class ApplicationsState {
 
         String normalizedLabel;
 
-        AppEntry(Context context, ApplicationInfo info, long id) {
+        AppEntry(Context context, ApplicationInfo info, long id, AppEntrySnapshot.Entry saved) {
             apkFile = new File(info.sourceDir);
             this.id = id;
             this.info = info;
             this.size = SIZE_UNKNOWN;
             this.sizeStale = true;
-            ensureLabel(context);
+            if (saved != null && saved.isValidFor(this)) {
+                // The package did not change since the snapshot: restore its label and
+                // its last known sizes, the sizes are still stale and will be refreshed.
+                this.mounted = true;
+                this.label = saved.label;
+                this.normalizedLabel = saved.normalizedLabel;
+                this.size = saved.size;
+                this.internalSize = saved.internalSize;
+                this.externalSize = saved.externalSize;
+                this.cacheSize = saved.cacheSize;
+                this.codeSize = saved.codeSize;
+                this.dataSize = saved.dataSize;
+                this.externalCodeSize = saved.externalCodeSize;
+                this.externalDataSize = saved.externalDataSize;
+                this.externalCacheSize = saved.externalCacheSize;
+            } else {
+                ensureLabel(context);
+            }
         }
         
         void ensureLabel(Context context) {
@@ -283,6 +300,12 @@ public class ApplicationsState {
     String mCurComputingSizePkg;
     boolean mSessionsChanged;
 
+    // Snapshot of the entries saved by a previous process, by package name, and whether
+    // the entries changed since it was written.  Synchronize on mEntriesMap.
+    final AppEntrySnapshot mSnapshot;
+    HashMap<String, AppEntrySnapshot.Entry> mSnapshotEntries;
+    boolean mSnapshotDirty;
+
     // Temporary for dispatching session callbacks.  Only touched by main thread.
     final ArrayList<Session> mActiveSessions = new ArrayList<Session>();
 
@@ -453,6 +476,10 @@ public class ApplicationsState {
         mThread.start();
         mBackgroundHandler = new BackgroundHandler(mThread.getLooper());
 
+        // Restore the entries of the previous process before anything else is loaded.
+        mSnapshot = new AppEntrySnapshot(mContext.getCacheDir(), UserHandle.myUserId());
+        mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_SNAPSHOT);
+
         // Only the owner can see all apps.
         if (UserHandle.myUserId() == 0) {
             mRetrieveFlags = PackageManager.GET_UNINSTALLED_PACKAGES |
@@ -498,10 +525,23 @@ public class ApplicationsState {
         ArrayList<AppEntry> mRebuildResult;
         ArrayList<AppEntry> mLastAppList;
 
+        // Entries currently shown by the session.  Synchronized on mEntriesMap.
+        ArrayList<AppEntry> mVisibleEntries;
+
         Session(Callbacks callbacks) {
             mCallbacks = callbacks;
         }
 
+        /**
+         * Hints which entries are currently visible, so that their icons are
+         * loaded in the background before the ones of the other entries.
+         */
+        public void setVisibleEntries(ArrayList<AppEntry> entries) {
+            synchronized (mEntriesMap) {
+                mVisibleEntries = entries;
+            }
+        }
+
         public void resume() {
             if (DEBUG_LOCKING) Log.v(TAG, "resume about to acquire lock...");
             synchronized (mEntriesMap) {
@@ -666,6 +706,8 @@ public class ApplicationsState {
             // should completely reload the app entries.
             mEntriesMap.clear();
             mAppEntries.clear();
+            mSnapshotEntries = null;
+            mSnapshotDirty = true;
         } else {
             for (int i=0; i<mAppEntries.size(); i++) {
                 mAppEntries.get(i).sizeStale = true;
@@ -743,6 +785,30 @@ public class ApplicationsState {
         }
     }
     
+    // Returns the entries whose icon still needs to be loaded, starting
+    // with the ones visible in the resumed sessions.
+    ArrayList<AppEntry> getEntriesNeedingIconLocked() {
+        ArrayList<AppEntry> entries = new ArrayList<AppEntry>();
+        for (int i=0; i<mSessions.size(); i++) {
+            Session s = mSessions.get(i);
+            if (s.mResumed && s.mVisibleEntries != null) {
+                for (int j=0; j<s.mVisibleEntries.size(); j++) {
+                    AppEntry entry = s.mVisibleEntries.get(j);
+                    if (entry.icon == null || !entry.mounted) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        for (int i=0; i<mAppEntries.size(); i++) {
+            AppEntry entry = mAppEntries.get(i);
+            if (entry.icon == null || !entry.mounted) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
     void requestSize(String packageName) {
         if (DEBUG_LOCKING) Log.v(TAG, "requestSize about to acquire lock...");
         synchronized (mEntriesMap) {
@@ -825,6 +891,7 @@ public class ApplicationsState {
                 if (entry != null) {
                     mEntriesMap.remove(pkgName);
                     mAppEntries.remove(entry);
+                    mSnapshotDirty = true;
                 }
                 ApplicationInfo info = mApplications.get(idx);
                 mApplications.remove(idx);
@@ -855,7 +922,16 @@ public class ApplicationsState {
         if (DEBUG) Log.i(TAG, "Looking up entry of pkg " + info.packageName + ": " + entry);
         if (entry == null) {
             if (DEBUG) Log.i(TAG, "Creating AppEntry for " + info.packageName);
-            entry = new AppEntry(mContext, info, mCurId++);
+            AppEntrySnapshot.Entry saved = mSnapshotEntries != null
+                    ? mSnapshotEntries.remove(info.packageName) : null;
+            entry = new AppEntry(mContext, info, mCurId++, saved);
+            if (entry.size != SIZE_UNKNOWN) {
+                entry.sizeStr = getSizeStr(entry.size);
+                entry.internalSizeStr = getSizeStr(entry.internalSize);
+                entry.externalSizeStr = getSizeStr(entry.externalSize);
+            } else {
+                mSnapshotDirty = true;
+            }
             mEntriesMap.put(info.packageName, entry);
             mAppEntries.add(entry);
         } else if (entry.info != info) {
@@ -891,6 +967,10 @@ public class ApplicationsState {
         return null;
     }
 
+    private String getSnapshotLocale() {
+        return mContext.getResources().getConfiguration().locale.toString();
+    }
+
     final HandlerThread mThread;
     final BackgroundHandler mBackgroundHandler;
     class BackgroundHandler extends Handler {
@@ -898,6 +978,12 @@ public class ApplicationsState {
         static final int MSG_LOAD_ENTRIES = 2;
         static final int MSG_LOAD_ICONS = 3;
         static final int MSG_LOAD_SIZES = 4;
+        static final int MSG_LOAD_SNAPSHOT = 5;
+        static final int MSG_SAVE_SNAPSHOT = 6;
+
+        // Max number of icons loaded per MSG_LOAD_ICONS, so that list
+        // rebuilds are not delayed.
+        static final int ICON_LOAD_BATCH = 2;
 
         boolean mRunning;
 
@@ -939,6 +1025,7 @@ public class ApplicationsState {
                                 if (DEBUG) Log.i(TAG, "Set size of " + entry.label + " " + entry
                                         + ": " + entry.sizeStr);
                                 sizeChanged = true;
+                                mSnapshotDirty = true;
                             }
                         }
                         if (sizeChanged) {
@@ -963,6 +1050,17 @@ public class ApplicationsState {
 
         @Override
         public void handleMessage(Message msg) {
+            // The snapshot must be restored before a list is rebuilt.
+            if (msg.what == MSG_LOAD_SNAPSHOT) {
+                HashMap<String, AppEntrySnapshot.Entry> entries
+                        = mSnapshot.read(getSnapshotLocale());
+                synchronized (mEntriesMap) {
+                    if (mAppEntries.isEmpty()) {
+                        mSnapshotEntries = entries;
+                    }
+                }
+            }
+
             // Always try rebuilding list first thing, if needed.
             ArrayList<Session> rebuildingSessions = null;
             synchronized (mEntriesMap) {
@@ -980,6 +1078,28 @@ public class ApplicationsState {
             switch (msg.what) {
                 case MSG_REBUILD_LIST: {
                 } break;
+                case MSG_LOAD_SNAPSHOT: {
+                } break;
+                case MSG_SAVE_SNAPSHOT: {
+                    ArrayList<AppEntrySnapshot.Entry> entries;
+                    synchronized (mEntriesMap) {
+                        if (!mSnapshotDirty) {
+                            break;
+                        }
+                        mSnapshotDirty = false;
+                        entries = new ArrayList<AppEntrySnapshot.Entry>(mAppEntries.size());
+                        for (int i=0; i<mAppEntries.size(); i++) {
+                            AppEntry entry = mAppEntries.get(i);
+                            synchronized (entry) {
+                                if (entry.label != null && entry.mounted) {
+                                    entries.add(AppEntrySnapshot.Entry.fromAppEntryLocked(entry));
+                                }
+                            }
+                        }
+                    }
+                    if (DEBUG) Log.i(TAG, "Saving snapshot of " + entries.size() + " entries");
+                    mSnapshot.write(getSnapshotLocale(), entries);
+                } break;
                 case MSG_LOAD_ENTRIES: {
                     int numDone = 0;
                     synchronized (mEntriesMap) {
@@ -1007,33 +1127,35 @@ public class ApplicationsState {
                     }
                 } break;
                 case MSG_LOAD_ICONS: {
-                    int numDone = 0;
+                    ArrayList<AppEntry> entries;
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                        for (int i=0; i<mAppEntries.size() && numDone<2; i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.icon == null || !entry.mounted) {
-                                synchronized (entry) {
-                                    if (entry.ensureIconLocked(mContext, mPm)) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        numDone++;
-                                    }
+                        entries = getEntriesNeedingIconLocked();
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
+                    }
+                    // Icons are loaded without holding mEntriesMap, so that
+                    // the main thread is not blocked while they are decoded.
+                    int numDone = 0;
+                    for (int i=0; i<entries.size() && numDone<ICON_LOAD_BATCH; i++) {
+                        AppEntry entry = entries.get(i);
+                        synchronized (entry) {
+                            if (entry.ensureIconLocked(mContext, mPm)) {
+                                if (!mRunning) {
+                                    mRunning = true;
+                                    Message m = mMainHandler.obtainMessage(
+                                            MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                                    mMainHandler.sendMessage(m);
                                 }
+                                numDone++;
                             }
                         }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
                     }
                     if (numDone > 0) {
                         if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
                         }
                     }
-                    if (numDone >= 2) {
+                    if (numDone >= ICON_LOAD_BATCH) {
                         sendEmptyMessage(MSG_LOAD_ICONS);
                     } else {
                         sendEmptyMessage(MSG_LOAD_SIZES);
@@ -1067,6 +1189,9 @@ public class ApplicationsState {
                                 return;
                             }
                         }
+                        if (mSnapshotDirty && !hasMessages(MSG_SAVE_SNAPSHOT)) {
+                            sendEmptyMessage(MSG_SAVE_SNAPSHOT);
+                        }
                         if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
                             mRunning = false;
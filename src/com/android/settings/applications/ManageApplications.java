@@ -283,6 +283,7 @@ public class ManageApplications extends Fragment implements
                 mApplications = new ApplicationsAdapter(mApplicationsState, this, mFilter);
                 mListView.setAdapter(mApplications);
                 mListView.setRecyclerListener(mApplications);
+                mListView.setOnScrollListener(mApplications);
                 //mColorBar = (LinearColorBar)mListContainer.findViewById(R.id.storage_color_bar);
                 //mStorageChartLabel = (TextView)mListContainer.findViewById(R.id.storageChartLabel);
                 //mUsedStorageText = (TextView)mListContainer.findViewById(R.id.usedStorageText);
@@ -569,7 +570,8 @@ public class ManageApplications extends Fragment implements
      * The order of applications in the list is mirrored in mAppLocalList
      */
     static class ApplicationsAdapter extends BaseAdapter implements Filterable,
-            ApplicationsState.Callbacks, AbsListView.RecyclerListener {
+            ApplicationsState.Callbacks, AbsListView.RecyclerListener,
+            AbsListView.OnScrollListener {
         private final ApplicationsState mState;
         private final ApplicationsState.Session mSession;
         private final TabInfo mTab;
@@ -582,6 +584,9 @@ public class ManageApplications extends Fragment implements
         private int mLastSortMode=-1;
         private boolean mWaitingForData;
         private int mWhichSize = SIZE_TOTAL;
+        private ArrayList<ApplicationsState.AppEntry> mVisibleEntriesSource;
+        private int mVisibleStart = -1;
+        private int mVisibleEnd = -1;
         CharSequence mCurFilterPrefix;
 
         private Filter mFilter = new Filter() {
@@ -762,8 +767,19 @@ public class ManageApplications extends Fragment implements
 
         @Override
         public void onPackageIconChanged() {
-            // We ensure icons are loaded when their item is displayed, so
-            // don't care about icons loaded in the background.
+            // Icons are loaded in the background, visible items first, so
+            // show the ones that are now available.
+            for (int i=0; i<mActive.size(); i++) {
+                AppViewHolder holder = (AppViewHolder)mActive.get(i).getTag();
+                if (holder.entry == null) {
+                    continue;
+                }
+                synchronized (holder.entry) {
+                    if (holder.entry.icon != null) {
+                        holder.appIcon.setImageDrawable(holder.entry.icon);
+                    }
+                }
+            }
         }
 
         @Override
@@ -825,10 +841,9 @@ public class ManageApplications extends Fragment implements
                 if (entry.label != null) {
                     holder.appName.setText(entry.label);
                 }
-                mState.ensureIcon(entry);
-                if (entry.icon != null) {
-                    holder.appIcon.setImageDrawable(entry.icon);
-                }
+                // Don't load the icon here, it is loaded in the background
+                // and shown by onPackageIconChanged().
+                holder.appIcon.setImageDrawable(entry.icon);
                 holder.updateSizeText(mTab.mInvalidSizeStr, mWhichSize);
                 if ((entry.info.flags&ApplicationInfo.FLAG_INSTALLED) == 0) {
                     holder.disabled.setVisibility(View.VISIBLE);
@@ -857,6 +872,34 @@ public class ManageApplications extends Fragment implements
             mActive.remove(view);
         }
 
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                int totalItemCount) {
+            if (mEntries == null) {
+                return;
+            }
+            if (view instanceof ListView) {
+                firstVisibleItem -= ((ListView)view).getHeaderViewsCount();
+            }
+            // Also hint the next page, so that its icons are ready when scrolling.
+            final int start = Math.max(0, firstVisibleItem);
+            final int end = Math.min(mEntries.size(), firstVisibleItem + visibleItemCount * 2);
+            if (mVisibleEntriesSource == mEntries && mVisibleStart == start
+                    && mVisibleEnd == end) {
+                return;
+            }
+            mVisibleEntriesSource = mEntries;
+            mVisibleStart = start;
+            mVisibleEnd = end;
+            mSession.setVisibleEntries(start < end
+                    ? new ArrayList<ApplicationsState.AppEntry>(mEntries.subList(start, end))
+                    : null);
+        }
+
         private void releaseApplicationsAdapter() {
             if (mBaseEntries != null) {
                 mBaseEntries.clear();
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.ActivityManager;
+import android.app.ActivityThread;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import com.android.settings.Utils;
+
+/**
+ * Process wide cache of the application info, label and icon of packages, and of the info of
+ * the services they run, shared by the running services and process stats screens so that the
+ * same packages are not resolved again on every update.
+ *
+ * Lookups block on the PackageManager the first time a package is asked for, so the lists
+ * resolve what they show from their background threads ahead of the UI. Icons are scaled down
+ * to the size of the list rows and kept in a cache of their own, bounded by their size in bytes.
+ * Entries of a package are dropped when it changes. All of them are dropped when the locale
+ * changes, which is the only configuration change listened to here; RunningState also clears
+ * the cache when it resumes after any other change that affects labels or icons.
+ */
+class PackageMetadataCache {
+    static final int MAX_PACKAGES = 256;
+    /** Part of the memory class used for the icons, 1/32 */
+    static final int ICON_CACHE_MEMORY_SHIFT = 5;
+    static final int MIN_ICON_CACHE_BYTES = 1024 * 1024;
+
+    static final int FLAGS = PackageManager.GET_UNINSTALLED_PACKAGES
+            | PackageManager.GET_DISABLED_COMPONENTS
+            | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS;
+
+    /**
+     * What is known of a package, which never changes.
+     */
+    static class Metadata {
+        final ApplicationInfo info;
+        final CharSequence label;
+
+        Metadata(ApplicationInfo info, CharSequence label) {
+            this.info = info;
+            this.label = label;
+        }
+    }
+
+    // Marks packages that do not exist, as process names often are not package names
+    private static final Metadata NOT_FOUND = new Metadata(null, null);
+
+    static final Object sGlobalLock = new Object();
+    static PackageMetadataCache sInstance;
+
+    final Context mContext;
+    final PackageManager mPm;
+    final int mIconSize;
+
+    // All below are protected by this lock
+    final Object mLock = new Object();
+    final LruCache<String, Metadata> mPackages = new LruCache<String, Metadata>(MAX_PACKAGES);
+    final LruCache<String, Drawable> mIcons;
+    final SparseArray<ArrayMap<ComponentName, ServiceInfo>> mServices
+            = new SparseArray<ArrayMap<ComponentName, ServiceInfo>>();
+
+    static PackageMetadataCache getInstance(Context context) {
+        synchronized (sGlobalLock) {
+            if (sInstance == null) {
+                sInstance = new PackageMetadataCache(context);
+            }
+            return sInstance;
+        }
+    }
+
+    private PackageMetadataCache(Context context) {
+        mContext = context.getApplicationContext();
+        mPm = mContext.getPackageManager();
+        mIconSize = mContext.getResources().getDimensionPixelSize(
+                android.R.dimen.app_icon_size);
+
+        final ActivityManager am = (ActivityManager) mContext.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        final int maxBytes = Math.max(MIN_ICON_CACHE_BYTES,
+                (am.getMemoryClass() * 1024 * 1024) >> ICON_CACHE_MEMORY_SHIFT);
+        mIcons = new LruCache<String, Drawable>(maxBytes) {
+            @Override
+            protected int sizeOf(String packageName, Drawable icon) {
+                return Utils.getIconByteCount(icon, mIconSize);
+            }
+        };
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(mReceiver, packageFilter);
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        filter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+    }
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data != null) {
+                invalidate(data.getEncodedSchemeSpecificPart());
+            } else {
+                clear();
+            }
+        }
+    };
+
+    /**
+     * @return the metadata of the given package, resolving it if needed, or null if there is
+     *         no such package.
+     */
+    Metadata get(String packageName) {
+        Metadata metadata;
+        synchronized (mLock) {
+            metadata = mPackages.get(packageName);
+        }
+        if (metadata == null) {
+            try {
+                final ApplicationInfo ai = mPm.getApplicationInfo(packageName, FLAGS);
+                metadata = new Metadata(ai, ai.loadLabel(mPm));
+            } catch (PackageManager.NameNotFoundException e) {
+                metadata = NOT_FOUND;
+            }
+            synchronized (mLock) {
+                mPackages.put(packageName, metadata);
+            }
+        }
+        return metadata != NOT_FOUND ? metadata : null;
+    }
+
+    /**
+     * @return the row sized icon of the given application, loading it if needed. Each caller
+     *         gets its own drawable, as drawables hold the state of the view showing them.
+     */
+    Drawable getIcon(ApplicationInfo info) {
+        final Metadata metadata = get(info.packageName);
+        if (metadata == null) {
+            return info.loadIcon(mPm);
+        }
+        Drawable icon;
+        synchronized (mLock) {
+            icon = mIcons.get(info.packageName);
+        }
+        if (icon == null) {
+            icon = Utils.scaleIcon(mContext.getResources(), metadata.info.loadIcon(mPm),
+                    mIconSize);
+            if (icon == null) {
+                return null;
+            }
+            synchronized (mLock) {
+                mIcons.put(info.packageName, icon);
+            }
+        }
+        final Drawable.ConstantState state = icon.getConstantState();
+        return state != null ? state.newDrawable(mContext.getResources()) : icon;
+    }
+
+    /**
+     * @return the info of the given service of the given user, resolving it if needed, or
+     *         null if there is no such service.
+     */
+    ServiceInfo getServiceInfo(ComponentName service, int userId) throws RemoteException {
+        synchronized (mLock) {
+            final ArrayMap<ComponentName, ServiceInfo> services = mServices.get(userId);
+            final ServiceInfo si = services != null ? services.get(service) : null;
+            if (si != null) {
+                return si;
+            }
+        }
+        final ServiceInfo si = ActivityThread.getPackageManager().getServiceInfo(
+                service, PackageManager.GET_UNINSTALLED_PACKAGES, userId);
+        if (si != null) {
+            synchronized (mLock) {
+                ArrayMap<ComponentName, ServiceInfo> services = mServices.get(userId);
+                if (services == null) {
+                    services = new ArrayMap<ComponentName, ServiceInfo>();
+                    mServices.put(userId, services);
+                }
+                services.put(service, si);
+            }
+        }
+        return si;
+    }
+
+    void invalidate(String packageName) {
+        synchronized (mLock) {
+            mPackages.remove(packageName);
+            mIcons.remove(packageName);
+            for (int i=0; i<mServices.size(); i++) {
+                final ArrayMap<ComponentName, ServiceInfo> services = mServices.valueAt(i);
+                for (int j=services.size()-1; j>=0; j--) {
+                    if (packageName.equals(services.keyAt(j).getPackageName())) {
+                        services.removeAt(j);
+                    }
+                }
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (mLock) {
+            mPackages.evictAll();
+            mIcons.evictAll();
+            mServices.clear();
+        }
+    }
+}
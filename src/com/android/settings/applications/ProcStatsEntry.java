@@ -99,7 +99,7 @@ public final class ProcStatsEntry implements Parcelable {
         mPackages.add(packageName);
     }
 
-    public void evaluateTargetPackage(PackageManager pm, ProcessStats stats,
+    public void evaluateTargetPackage(PackageMetadataCache cache, ProcessStats stats,
             ProcessStats.ProcessDataCollection totals, Comparator<ProcStatsEntry> compare,
             boolean useUss, boolean weightWithTime) {
         mBestTargetPackage = null;
@@ -153,18 +153,18 @@ public final class ProcStatsEntry implements Parcelable {
                                 + " too small");
                         continue;
                     }
-                    try {
-                        ApplicationInfo ai = pm.getApplicationInfo(subProcs.get(i).mPackage, 0);
-                        if (ai.icon == 0) {
-                            if (DEBUG) Log.d(TAG, "Eval pkg of " + mName + ": pkg "
-                                    + subProcs.get(i).mPackage + " has no icon");
-                            continue;
-                        }
-                    } catch (PackageManager.NameNotFoundException e) {
+                    PackageMetadataCache.Metadata metadata = cache.get(subProcs.get(i).mPackage);
+                    if (metadata == null
+                            || (metadata.info.flags & ApplicationInfo.FLAG_INSTALLED) == 0) {
                         if (DEBUG) Log.d(TAG, "Eval pkg of " + mName + ": pkg "
                                 + subProcs.get(i).mPackage + " failed finding app info");
                         continue;
                     }
+                    if (metadata.info.icon == 0) {
+                        if (DEBUG) Log.d(TAG, "Eval pkg of " + mName + ": pkg "
+                                + subProcs.get(i).mPackage + " has no icon");
+                        continue;
+                    }
                     ArrayList<Service> subProcServices = null;
                     for (int isp=0, NSP=mServices.size(); isp<NSP; isp++) {
                         ArrayList<Service> subServices = mServices.valueAt(isp);
@@ -203,18 +203,17 @@ public final class ProcStatsEntry implements Parcelable {
         }
     }
 
-    public void retrieveUiData(PackageManager pm) {
+    public void retrieveUiData(PackageMetadataCache cache) {
+        final PackageManager pm = cache.mPm;
         mUiTargetApp = null;
         mUiLabel = mUiBaseLabel = mName;
         mUiPackage = mBestTargetPackage;
         if (mUiPackage != null) {
             // Only one app associated with this process.
-            try {
-                mUiTargetApp = pm.getApplicationInfo(mUiPackage,
-                        PackageManager.GET_DISABLED_COMPONENTS |
-                        PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS |
-                        PackageManager.GET_UNINSTALLED_PACKAGES);
-                String name = mUiBaseLabel = mUiTargetApp.loadLabel(pm).toString();
+            final PackageMetadataCache.Metadata metadata = cache.get(mUiPackage);
+            if (metadata != null) {
+                mUiTargetApp = metadata.info;
+                String name = mUiBaseLabel = metadata.label.toString();
                 if (mName.equals(mUiPackage)) {
                     mUiLabel = name;
                 } else {
@@ -228,7 +227,6 @@ public final class ProcStatsEntry implements Parcelable {
                         mUiLabel = name + " (" + mName + ")";
                     }
                 }
-            } catch (PackageManager.NameNotFoundException e) {
             }
         }
         if (mUiTargetApp == null) {
@@ -80,7 +80,7 @@ public class ProcessStatsDetail extends Fragment implements Button.OnClickListen
         mDpm = (DevicePolicyManager)getActivity().getSystemService(Context.DEVICE_POLICY_SERVICE);
         final Bundle args = getArguments();
         mEntry = (ProcStatsEntry)args.getParcelable(EXTRA_ENTRY);
-        mEntry.retrieveUiData(mPm);
+        mEntry.retrieveUiData(PackageMetadataCache.getInstance(getActivity()));
         mUseUss = args.getBoolean(EXTRA_USE_USS);
         mMaxWeight = args.getLong(EXTRA_MAX_WEIGHT);
         mTotalTime = args.getLong(EXTRA_TOTAL_TIME);
@@ -126,7 +126,8 @@ public class ProcessStatsDetail extends Fragment implements Button.OnClickListen
         progress.setProgress(appLevel);
         final ImageView icon = (ImageView) mRootView.findViewById(android.R.id.icon);
         if (mEntry.mUiTargetApp != null) {
-            icon.setImageDrawable(mEntry.mUiTargetApp.loadIcon(mPm));
+            icon.setImageDrawable(PackageMetadataCache.getInstance(getActivity())
+                    .getIcon(mEntry.mUiTargetApp));
         }
 
         mTwoButtonsPanel = (ViewGroup)mRootView.findViewById(R.id.two_buttons_panel);
@@ -171,11 +172,11 @@ public class ProcessStatsDetail extends Fragment implements Button.OnClickListen
         final ImageView icon = (ImageView) item.findViewById(R.id.icon);
         TextView nameView = (TextView) item.findViewById(R.id.name);
         TextView descriptionView = (TextView) item.findViewById(R.id.description);
-        try {
-            ApplicationInfo ai = mPm.getApplicationInfo(packageName, 0);
-            icon.setImageDrawable(ai.loadIcon(mPm));
-            nameView.setText(ai.loadLabel(mPm));
-        } catch (PackageManager.NameNotFoundException e) {
+        final PackageMetadataCache cache = PackageMetadataCache.getInstance(getActivity());
+        final PackageMetadataCache.Metadata metadata = cache.get(packageName);
+        if (metadata != null) {
+            icon.setImageDrawable(cache.getIcon(metadata.info));
+            nameView.setText(metadata.label);
         }
         descriptionView.setText(packageName);
     }
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.ActivityManager;
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+import android.util.TimeUtils;
+import com.android.internal.app.IProcessStats;
+import com.android.internal.app.ProcessMap;
+import com.android.internal.app.ProcessStats;
+import com.android.internal.util.MemInfoReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Loads the process stats of a duration, and ranks the processes of the given states by their
+ * memory use for {@link ProcessStatsUi}, with the labels and icons of the listed ones resolved.
+ *
+ * The parsed stats of each duration are kept until {@link #clearCache} is called when the
+ * screen is left, so that showing other states, switching between PSS and USS or going back
+ * to a duration does not read them again.
+ */
+class ProcessStatsLoader extends AsyncTaskLoader<ProcessStatsLoader.Result> {
+    private static final String TAG = ProcessStatsUi.TAG;
+    private static final boolean DEBUG = ProcessStatsUi.DEBUG;
+
+    private static final String KEY_DURATION = "duration";
+    private static final String KEY_PROC_STATES = "proc_states";
+    private static final String KEY_MEM_REGION = "mem_region";
+    private static final String KEY_USE_USS = "use_uss";
+    private static final String KEY_BACKGROUND = "background";
+    private static final String KEY_SHOW_SYSTEM = "show_system";
+
+    /**
+     * The memory use summary and the ranked entries to list.
+     */
+    static class Result {
+        int memState;
+        long elapsedTime;
+        long totalTime;
+        long memTotalTime;
+        long maxWeight;
+
+        final long[] memTimes = new long[ProcessStats.ADJ_MEM_FACTOR_COUNT];
+        final double[] memStateWeights = new double[ProcessStats.STATE_COUNT];
+        double memCachedWeight;
+        double memFreeWeight;
+        double memZRamWeight;
+        double memKernelWeight;
+        double memNativeWeight;
+        double memTotalWeight;
+
+        int badnessColor;
+        float usedRatio;
+
+        final ArrayList<ProcStatsEntry> entries = new ArrayList<ProcStatsEntry>();
+    }
+
+    private static final Object sStatsLock = new Object();
+    private static final LongSparseArray<ProcessStats> sStats = new LongSparseArray<ProcessStats>();
+
+    private final Bundle mArgs;
+
+    static Bundle buildArgs(long duration, int[] procStates, int memRegion, boolean useUss,
+            boolean background, boolean showSystem) {
+        final Bundle args = new Bundle();
+        args.putLong(KEY_DURATION, duration);
+        args.putIntArray(KEY_PROC_STATES, procStates);
+        args.putInt(KEY_MEM_REGION, memRegion);
+        args.putBoolean(KEY_USE_USS, useUss);
+        args.putBoolean(KEY_BACKGROUND, background);
+        args.putBoolean(KEY_SHOW_SYSTEM, showSystem);
+        return args;
+    }
+
+    /**
+     * Drop the parsed stats, so that the next loads read them again.
+     */
+    static void clearCache() {
+        synchronized (sStatsLock) {
+            sStats.clear();
+        }
+    }
+
+    ProcessStatsLoader(Context context, Bundle args) {
+        super(context);
+        mArgs = args;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        super.onStartLoading();
+        forceLoad();
+    }
+
+    @Override
+    protected void onStopLoading() {
+        super.onStopLoading();
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+    }
+
+    @Override
+    public Result loadInBackground() {
+        final IProcessStats processStats = IProcessStats.Stub.asInterface(
+                ServiceManager.getService(ProcessStats.SERVICE_NAME));
+        final Result result = new Result();
+        final ProcessStats stats;
+        try {
+            result.memState = processStats.getCurrentMemoryState();
+            stats = getStats(processStats, mArgs.getLong(KEY_DURATION));
+        } catch (RemoteException e) {
+            Log.e(TAG, "RemoteException:", e);
+            return null;
+        }
+
+        aggregate(stats, result);
+        return result;
+    }
+
+    private static ProcessStats getStats(IProcessStats processStats, long duration)
+            throws RemoteException {
+        synchronized (sStatsLock) {
+            final ProcessStats stats = sStats.get(duration);
+            if (stats != null) {
+                return stats;
+            }
+        }
+
+        ParcelFileDescriptor pfd = processStats.getStatsOverTime(duration);
+        final ProcessStats stats = new ProcessStats(false);
+        InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        stats.read(is);
+        try {
+            is.close();
+        } catch (IOException e) {
+        }
+        if (stats.mReadError != null) {
+            Log.w(TAG, "Failure reading process stats: " + stats.mReadError);
+        }
+
+        synchronized (sStatsLock) {
+            sStats.put(duration, stats);
+        }
+        return stats;
+    }
+
+    private void aggregate(ProcessStats stats, Result result) {
+        final Context context = getContext();
+        final int[] procStates = mArgs.getIntArray(KEY_PROC_STATES);
+        final int memRegion = mArgs.getInt(KEY_MEM_REGION);
+        final boolean useUss = mArgs.getBoolean(KEY_USE_USS);
+        final boolean background = mArgs.getBoolean(KEY_BACKGROUND);
+        final boolean showSystem = mArgs.getBoolean(KEY_SHOW_SYSTEM);
+        final long[] memTimes = result.memTimes;
+
+        result.elapsedTime = stats.mTimePeriodEndRealtime-stats.mTimePeriodStartRealtime;
+
+        long now = SystemClock.uptimeMillis();
+
+        final PackageMetadataCache metadataCache = PackageMetadataCache.getInstance(context);
+
+        result.totalTime = ProcessStats.dumpSingleTime(null, null, stats.mMemFactorDurations,
+                stats.mMemFactor, stats.mStartTime, now);
+        if (DEBUG) Log.d(TAG, "Total time of stats: " + makeDuration(result.totalTime));
+
+        for (int iscreen=0; iscreen<ProcessStats.ADJ_COUNT; iscreen+=ProcessStats.ADJ_SCREEN_MOD) {
+            for (int imem=0; imem<ProcessStats.ADJ_MEM_FACTOR_COUNT; imem++) {
+                int state = imem+iscreen;
+                memTimes[imem] += stats.mMemFactorDurations[state];
+            }
+        }
+
+        long memTotalTime;
+        int[] memStates;
+
+        switch (memRegion) {
+            case LinearColorBar.REGION_RED:
+                memTotalTime = memTimes[ProcessStats.ADJ_MEM_FACTOR_CRITICAL];
+                memStates = ProcessStatsUi.RED_MEM_STATES;
+                break;
+            case LinearColorBar.REGION_YELLOW:
+                memTotalTime = memTimes[ProcessStats.ADJ_MEM_FACTOR_CRITICAL]
+                        + memTimes[ProcessStats.ADJ_MEM_FACTOR_LOW]
+                        + memTimes[ProcessStats.ADJ_MEM_FACTOR_MODERATE];
+                memStates = ProcessStatsUi.YELLOW_MEM_STATES;
+                break;
+            default:
+                memTotalTime = result.totalTime;
+                memStates = ProcessStats.ALL_MEM_ADJ;
+                break;
+        }
+        result.memTotalTime = memTotalTime;
+
+        // Compute memory badness for chart color.
+        int[] badColors = com.android.settings.Utils.BADNESS_COLORS;
+        long timeGood = memTimes[ProcessStats.ADJ_MEM_FACTOR_NORMAL];
+        timeGood += (memTimes[ProcessStats.ADJ_MEM_FACTOR_MODERATE]*2)/3;
+        timeGood += memTimes[ProcessStats.ADJ_MEM_FACTOR_LOW]/3;
+        float memBadness = ((float)timeGood)/result.totalTime;
+        result.badnessColor = badColors[1 + Math.round(memBadness*(badColors.length-2))];
+
+        // We are now going to scale the memTimes to match the total elapsed time.
+        // These are in uptime, so they will often be smaller than the elapsed time,
+        // but if the user taps on the bar we want to show the times to them.  It is confusing
+        // to see them be smaller than what we told them the measured duration is, so just
+        // scaling them up with make things look reasonable with them none the wiser.
+        for (int i=0; i<ProcessStats.ADJ_MEM_FACTOR_COUNT; i++) {
+            memTimes[i] = (long)((memTimes[i]*(double)result.elapsedTime)/result.totalTime);
+        }
+
+        ProcessStats.TotalMemoryUseCollection totalMem = new ProcessStats.TotalMemoryUseCollection(
+                ProcessStats.ALL_SCREEN_ADJ, memStates);
+        stats.computeTotalMemoryUse(totalMem, now);
+        double freeWeight = totalMem.sysMemFreeWeight + totalMem.sysMemCachedWeight;
+        double usedWeight = totalMem.sysMemKernelWeight + totalMem.sysMemNativeWeight
+                + totalMem.sysMemZRamWeight;
+        double backgroundWeight = 0, persBackgroundWeight = 0;
+        result.memCachedWeight = totalMem.sysMemCachedWeight;
+        result.memFreeWeight = totalMem.sysMemFreeWeight;
+        result.memZRamWeight = totalMem.sysMemZRamWeight;
+        result.memKernelWeight = totalMem.sysMemKernelWeight;
+        result.memNativeWeight = totalMem.sysMemNativeWeight;
+        for (int i=0; i<ProcessStats.STATE_COUNT; i++) {
+            if (i == ProcessStats.STATE_SERVICE_RESTARTING) {
+                // These don't really run.
+                result.memStateWeights[i] = 0;
+            } else {
+                result.memStateWeights[i] = totalMem.processStateWeight[i];
+                if (i >= ProcessStats.STATE_HOME) {
+                    freeWeight += totalMem.processStateWeight[i];
+                } else {
+                    usedWeight += totalMem.processStateWeight[i];
+                }
+                if (i >= ProcessStats.STATE_IMPORTANT_FOREGROUND) {
+                    backgroundWeight += totalMem.processStateWeight[i];
+                    persBackgroundWeight += totalMem.processStateWeight[i];
+                }
+                if (i == ProcessStats.STATE_PERSISTENT) {
+                    persBackgroundWeight += totalMem.processStateWeight[i];
+                }
+            }
+        }
+        if (DEBUG) {
+            Log.i(TAG, "Used RAM: " + Formatter.formatShortFileSize(context,
+                    (long)((usedWeight * 1024) / memTotalTime)));
+            Log.i(TAG, "Free RAM: " + Formatter.formatShortFileSize(context,
+                    (long)((freeWeight * 1024) / memTotalTime)));
+            Log.i(TAG, "Total RAM: " + Formatter.formatShortFileSize(context,
+                    (long)(((freeWeight+usedWeight) * 1024) / memTotalTime)));
+            Log.i(TAG, "Background+Cached RAM: " + Formatter.formatShortFileSize(context,
+                    (long)((backgroundWeight * 1024) / memTotalTime)));
+        }
+        result.memTotalWeight = freeWeight + usedWeight;
+
+        // For computing the ratio to show, we want to count the baseline cached RAM we
+        // need (at which point we start killing processes) as used RAM, so that if we
+        // reach the point of thrashing due to no RAM for any background processes we
+        // report that as RAM being full.  To do this, we need to first convert the weights
+        // back to actual RAM...  and since the RAM values we compute here won't exactly
+        // match the real physical RAM, scale those to the actual physical RAM.  No problem!
+        double usedRam = (usedWeight*1024)/memTotalTime;
+        double freeRam = (freeWeight*1024)/memTotalTime;
+        double totalRam = usedRam + freeRam;
+        MemInfoReader memReader = new MemInfoReader();
+        memReader.readMemInfo();
+        double realTotalRam = memReader.getTotalSize();
+        double totalScale = realTotalRam / totalRam;
+        double realUsedRam = usedRam * totalScale;
+        double realFreeRam = freeRam * totalScale;
+        if (DEBUG) {
+            Log.i(TAG, "Scaled Used RAM: " + Formatter.formatShortFileSize(context,
+                    (long)realUsedRam));
+            Log.i(TAG, "Scaled Free RAM: " + Formatter.formatShortFileSize(context,
+                    (long)realFreeRam));
+        }
+        ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
+        ((ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryInfo(
+                memInfo);
+        if (memInfo.hiddenAppThreshold >= realFreeRam) {
+            realUsedRam = realFreeRam;
+            realFreeRam = 0;
+        } else {
+            realUsedRam += memInfo.hiddenAppThreshold;
+            realFreeRam -= memInfo.hiddenAppThreshold;
+        }
+        if (DEBUG) {
+            Log.i(TAG, "Adj Scaled Used RAM: " + Formatter.formatShortFileSize(context,
+                    (long)realUsedRam));
+            Log.i(TAG, "Adj Scaled Free RAM: " + Formatter.formatShortFileSize(context,
+                    (long)realFreeRam));
+        }
+
+        result.usedRatio = (float)(realUsedRam/(realFreeRam+realUsedRam));
+
+        ProcessStats.ProcessDataCollection totals = new ProcessStats.ProcessDataCollection(
+                ProcessStats.ALL_SCREEN_ADJ, memStates, procStates);
+
+        ArrayList<ProcStatsEntry> entries = new ArrayList<ProcStatsEntry>();
+
+        if (DEBUG) Log.d(TAG, "-------------------- PULLING PROCESSES");
+
+        final ProcessMap<ProcStatsEntry> entriesMap = new ProcessMap<ProcStatsEntry>();
+        for (int ipkg=0, N=stats.mPackages.getMap().size(); ipkg<N; ipkg++) {
+            final SparseArray<SparseArray<ProcessStats.PackageState>> pkgUids
+                    = stats.mPackages.getMap().valueAt(ipkg);
+            for (int iu=0; iu<pkgUids.size(); iu++) {
+                final SparseArray<ProcessStats.PackageState> vpkgs = pkgUids.valueAt(iu);
+                for (int iv=0; iv<vpkgs.size(); iv++) {
+                    final ProcessStats.PackageState st = vpkgs.valueAt(iv);
+                    for (int iproc=0; iproc<st.mProcesses.size(); iproc++) {
+                        final ProcessStats.ProcessState pkgProc = st.mProcesses.valueAt(iproc);
+                        final ProcessStats.ProcessState proc = stats.mProcesses.get(pkgProc.mName,
+                                pkgProc.mUid);
+                        if (proc == null) {
+                            Log.w(TAG, "No process found for pkg " + st.mPackageName
+                                    + "/" + st.mUid + " proc name " + pkgProc.mName);
+                            continue;
+                        }
+                        ProcStatsEntry ent = entriesMap.get(proc.mName, proc.mUid);
+                        if (ent == null) {
+                            ent = new ProcStatsEntry(proc, st.mPackageName, totals, useUss,
+                                    background);
+                            if (ent.mDuration > 0) {
+                                if (DEBUG) Log.d(TAG, "Adding proc " + proc.mName + "/"
+                                        + proc.mUid + ": time=" + makeDuration(ent.mDuration) + " ("
+                                        + ((((double)ent.mDuration) / memTotalTime) * 100) + "%)"
+                                        + " pss=" + ent.mAvgPss);
+                                entriesMap.put(proc.mName, proc.mUid, ent);
+                                entries.add(ent);
+                            }
+                        }  else {
+                            ent.addPackage(st.mPackageName);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (DEBUG) Log.d(TAG, "-------------------- MAPPING SERVICES");
+
+        // Add in service info.
+        if (background) {
+            for (int ip=0, N=stats.mPackages.getMap().size(); ip<N; ip++) {
+                SparseArray<SparseArray<ProcessStats.PackageState>> uids
+                        = stats.mPackages.getMap().valueAt(ip);
+                for (int iu=0; iu<uids.size(); iu++) {
+                    SparseArray<ProcessStats.PackageState> vpkgs = uids.valueAt(iu);
+                    for (int iv=0; iv<vpkgs.size(); iv++) {
+                        ProcessStats.PackageState ps = vpkgs.valueAt(iv);
+                        for (int is=0, NS=ps.mServices.size(); is<NS; is++) {
+                            ProcessStats.ServiceState ss = ps.mServices.valueAt(is);
+                            if (ss.mProcessName != null) {
+                                ProcStatsEntry ent = entriesMap.get(ss.mProcessName, uids.keyAt(iu));
+                                if (ent != null) {
+                                    if (DEBUG) Log.d(TAG, "Adding service " + ps.mPackageName
+                                            + "/" + ss.mName + "/" + uids.keyAt(iu) + " to proc "
+                                            + ss.mProcessName);
+                                    ent.addService(ss);
+                                } else {
+                                    Log.w(TAG, "No process " + ss.mProcessName + "/" + uids.keyAt(iu)
+                                            + " for service " + ss.mName);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        Collections.sort(entries, ProcessStatsUi.sEntryCompare);
+
+        long maxWeight = 1;
+        for (int i=0, N=entries.size(); i<N; i++) {
+            ProcStatsEntry proc = entries.get(i);
+            if (maxWeight < proc.mWeight) {
+                maxWeight = proc.mWeight;
+            }
+        }
+        if (background) {
+            result.maxWeight = (long)(showSystem ? persBackgroundWeight : backgroundWeight);
+            if (result.maxWeight < maxWeight) {
+                result.maxWeight = maxWeight;
+            }
+            if (DEBUG) {
+                Log.i(TAG, "Bar max RAM: " + Formatter.formatShortFileSize(context,
+                        (result.maxWeight * 1024) / memTotalTime));
+            }
+        } else {
+            result.maxWeight = maxWeight;
+        }
+
+        if (DEBUG) Log.d(TAG, "-------------------- RESOLVING ENTRIES");
+
+        // Find where we should stop.  Because we have two properties we are looking at,
+        // we need to go from the back looking for the first place either holds.
+        int end = entries.size()-1;
+        while (end >= 0) {
+            ProcStatsEntry proc = entries.get(end);
+            final double percentOfWeight = (((double)proc.mWeight) / result.maxWeight) * 100;
+            final double percentOfTime = (((double)proc.mDuration) / memTotalTime) * 100;
+            if (percentOfWeight >= 1 || percentOfTime >= 25) {
+                break;
+            }
+            end--;
+        }
+        end = Math.min(end, ProcessStatsUi.MAX_ITEMS_TO_LIST-1);
+
+        // Only the listed entries need their app, which is most of the work
+        for (int i=0; i<=end; i++) {
+            if (isLoadInBackgroundCanceled()) {
+                return;
+            }
+            ProcStatsEntry proc = entries.get(i);
+            proc.evaluateTargetPackage(metadataCache, stats, totals,
+                    ProcessStatsUi.sEntryCompare, useUss, background);
+            proc.retrieveUiData(metadataCache);
+            if (proc.mUiTargetApp != null) {
+                metadataCache.getIcon(proc.mUiTargetApp);
+            }
+            result.entries.add(proc);
+        }
+    }
+
+    private static String makeDuration(long time) {
+        StringBuilder sb = new StringBuilder(32);
+        TimeUtils.formatDuration(time, sb);
+        return sb.toString();
+    }
+}
@@ -25,7 +25,7 @@ import android.app.ActivityManager;
 import android.app.Dialog;
 import android.app.Fragment;
 import android.content.Context;
-import android.content.pm.PackageManager;
+import android.content.pm.PackageItemInfo;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.os.UserHandle;
@@ -100,6 +100,22 @@ public class RunningProcessesView extends FrameLayout
         long mFirstRunTime;
         boolean mSetBackground;
 
+        // What the views show, so that binding the same item again can be
+        // skipped while it did not change.
+        CharSequence mBoundLabel;
+        String mBoundDescription;
+        PackageItemInfo mBoundPackageInfo;
+        boolean mBoundBackground;
+
+        boolean isBoundTo(RunningState.BaseItem item) {
+            return mItem == item
+                    && mBoundLabel == item.mDisplayLabel
+                    && mBoundDescription == item.mDescription
+                    && mBoundPackageInfo == item.mPackageInfo
+                    && mBoundBackground == item.mBackground
+                    && mFirstRunTime == item.mActiveSince;
+        }
+
         void updateTime(Context context, StringBuilder builder) {
             TextView uptimeView = null;
             
@@ -172,13 +188,14 @@ public class RunningProcessesView extends FrameLayout
         public ActiveItem bind(RunningState state, RunningState.BaseItem item,
                 StringBuilder builder) {
             synchronized (state.mLock) {
-                PackageManager pm = rootView.getContext().getPackageManager();
                 if (item.mPackageInfo == null && item instanceof RunningState.MergedItem) {
                     // Items for background processes don't normally load
-                    // their labels for performance reasons.  Do it now.
+                    // their labels for performance reasons.  Do it now if
+                    // the background thread did not get to it yet.
                     RunningState.MergedItem mergedItem = (RunningState.MergedItem)item;
                     if (mergedItem.mProcess != null) {
-                        ((RunningState.MergedItem)item).mProcess.ensureLabel(pm);
+                        ((RunningState.MergedItem)item).mProcess.ensureLabel(
+                                state.mMetadataCache);
                         item.mPackageInfo = ((RunningState.MergedItem)item).mProcess.mPackageInfo;
                         item.mDisplayLabel = ((RunningState.MergedItem)item).mProcess.mDisplayLabel;
                     }
@@ -197,6 +214,10 @@ public class RunningProcessesView extends FrameLayout
                 item.mCurSizeStr = null;
                 icon.setImageDrawable(item.loadIcon(rootView.getContext(), state));
                 icon.setVisibility(View.VISIBLE);
+                ai.mBoundLabel = item.mDisplayLabel;
+                ai.mBoundDescription = item.mDescription;
+                ai.mBoundPackageInfo = item.mPackageInfo;
+                ai.mBoundBackground = item.mBackground;
                 ai.updateTime(rootView.getContext(), builder);
                 return ai;
             }
@@ -309,9 +330,16 @@ public class RunningProcessesView extends FrameLayout
                     // to refresh the entire list.
                     return;
                 }
-                ViewHolder vh = (ViewHolder) view.getTag();
                 RunningState.MergedItem item = mItems.get(position);
-                ActiveItem ai = vh.bind(mState, item, mBuilder);
+                ActiveItem ai = mActiveItems.get(view);
+                if (ai != null && ai.isBoundTo(item)) {
+                    // Still showing this item, only its size and time may
+                    // need an update.
+                    ai.updateTime(getContext(), mBuilder);
+                    return;
+                }
+                ViewHolder vh = (ViewHolder) view.getTag();
+                ai = vh.bind(mState, item, mBuilder);
                 mActiveItems.put(view, ai);
             }
         }
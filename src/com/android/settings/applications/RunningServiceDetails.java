@@ -23,6 +23,7 @@ import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.Debug;
 import android.os.Handler;
+import android.os.RemoteException;
 import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
@@ -182,10 +183,12 @@ public class RunningServiceDetails extends Fragment
             } else if (mActiveItem.mItem.mBackground) {
                 // Background process.  Just kill it.
                 mAm.killBackgroundProcesses(mActiveItem.mItem.mPackageInfo.packageName);
+                mState.updateNow();
                 finish();
             } else {
                 // Heavy-weight process.  We'll do a force-stop on it.
                 mAm.forceStopPackage(mActiveItem.mItem.mPackageInfo.packageName);
+                mState.updateNow();
                 finish();
             }
         }
@@ -373,11 +376,13 @@ public class RunningServiceDetails extends Fragment
                     textid = R.string.process_service_in_use_description;
                     if (rpi.importanceReasonComponent != null) {
                         try {
-                            ServiceInfo serv = getActivity().getPackageManager().getServiceInfo(
-                                    rpi.importanceReasonComponent, 0);
-                            label = RunningState.makeLabel(getActivity().getPackageManager(),
-                                    serv.name, serv);
-                        } catch (NameNotFoundException e) {
+                            ServiceInfo serv = mState.mMetadataCache.getServiceInfo(
+                                    rpi.importanceReasonComponent, UserHandle.myUserId());
+                            if (serv != null) {
+                                label = RunningState.makeLabel(
+                                        getActivity().getPackageManager(), serv.name, serv);
+                            }
+                        } catch (RemoteException e) {
                         }
                     }
                     break;
@@ -617,6 +622,11 @@ public class RunningServiceDetails extends Fragment
             // And since we know we have the data, let's show the UI right away
             // to avoid flicker.
             refreshUi(true);
+
+            // The sizes shown may be from a while ago, get fresh ones.
+            if (mMergedItem != null) {
+                mState.refreshPssNow(mMergedItem);
+            }
         }
     }
     
@@ -18,7 +18,6 @@ package com.android.settings.applications;
 
 import android.app.ActivityManager;
 import android.app.ActivityManagerNative;
-import android.app.ActivityThread;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
@@ -37,11 +36,13 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
@@ -69,19 +70,29 @@ public class RunningState {
     static final int MSG_UPDATE_CONTENTS = 2;
     static final int MSG_REFRESH_UI = 3;
     static final int MSG_UPDATE_TIME = 4;
+    static final int MSG_RESOLVE_METADATA = 5;
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // The contents update delay doubles up to this while nothing changes
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
 
     static final int MAX_SERVICES = 100;
 
     final Context mApplicationContext;
     final ActivityManager mAm;
     final PackageManager mPm;
+    final PackageMetadataCache mMetadataCache;
     final UserManager mUm;
     final int mMyUserId;
     final boolean mHideManagedProfiles;
 
+    // The PSS of a process whose pid and importance did not change is only
+    // sampled again once it is this old, for at most mMaxPssSamples of them
+    // per update.
+    final long mPssMaxAge;
+    final int mMaxPssSamples;
+
     OnRefreshUiListener mRefreshUiListener;
 
     final InterestingConfigChanges mInterestingConfigChanges = new InterestingConfigChanges();
@@ -140,8 +151,25 @@ public class RunningState {
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    // Temporary list of the processes whose PSS is sampled in an update.
+    final ArrayList<ProcessItem> mTmpPssProcesses = new ArrayList<ProcessItem>();
+
+    // Temporary lists the items are built into when the structure changed.
+    // They are only copied into new published lists if they differ.
+    final ArrayList<ProcessItem> mTmpSortedProcesses = new ArrayList<ProcessItem>();
+    final ArrayList<BaseItem> mTmpItems = new ArrayList<BaseItem>();
+    final ArrayList<MergedItem> mTmpMergedItems = new ArrayList<MergedItem>();
+
     int mSequence = 0;
 
+    // Whether the last update found the same services and processes as the
+    // previous one.  Only used by the background thread.
+    boolean mLastUpdateUnchanged;
+
+    // Where the next update starts looking for stale PSS samples, so that
+    // they are refreshed in turn.  Only used by the background thread.
+    int mNextPssIndex;
+
     final Comparator<RunningState.MergedItem> mBackgroundComparator
         = new Comparator<RunningState.MergedItem>() {
             @Override
@@ -202,13 +230,18 @@ public class RunningState {
     // ----- following protected by mLock -----
     
     // Lock for protecting the state that will be shared between the
-    // background update thread and the UI thread.
+    // background update thread and the UI thread.  The item lists are
+    // never modified once published, a new list replaces them when their
+    // contents change.
     final Object mLock = new Object();
     
     boolean mResumed;
     boolean mHaveData;
     boolean mWatchingBackgroundItems;
 
+    // Pids whose PSS is sampled on the next update, whatever its age.
+    final SparseBooleanArray mPssRefreshPids = new SparseBooleanArray();
+
     ArrayList<BaseItem> mItems = new ArrayList<BaseItem>();
     ArrayList<MergedItem> mMergedItems = new ArrayList<MergedItem>();
     ArrayList<MergedItem> mBackgroundItems = new ArrayList<MergedItem>();
@@ -225,6 +258,8 @@ public class RunningState {
 
     final HandlerThread mBackgroundThread;
     final class BackgroundHandler extends Handler {
+        long mUpdateDelay = CONTENTS_UPDATE_DELAY;
+
         public BackgroundHandler(Looper looper) {
             super(looper);
         }
@@ -244,9 +279,25 @@ public class RunningState {
                     Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
                     cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
                     mHandler.sendMessage(cmd);
+
+                    // Back off while nothing changes, and poll at the base
+                    // rate again when asked to update now (arg1 != 0).
+                    if (msg.arg1 != 0 || !mLastUpdateUnchanged) {
+                        mUpdateDelay = CONTENTS_UPDATE_DELAY;
+                    } else {
+                        mUpdateDelay = Math.min(mUpdateDelay * 2, MAX_CONTENTS_UPDATE_DELAY);
+                    }
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, mUpdateDelay);
+                    if (!hasMessages(MSG_RESOLVE_METADATA)) {
+                        sendEmptyMessage(MSG_RESOLVE_METADATA);
+                    }
+                    break;
+                case MSG_RESOLVE_METADATA:
+                    if (resolveMetadata()) {
+                        mHandler.sendMessage(mHandler.obtainMessage(MSG_REFRESH_UI, 1, 0));
+                    }
                     break;
             }
         }
@@ -326,7 +377,9 @@ public class RunningState {
         }
 
         public Drawable loadIcon(Context context, RunningState state) {
-            if (mPackageInfo != null) {
+            if (mPackageInfo instanceof ApplicationInfo) {
+                return state.mMetadataCache.getIcon((ApplicationInfo)mPackageInfo);
+            } else if (mPackageInfo != null) {
                 return mPackageInfo.loadIcon(state.mPm);
             }
             return null;
@@ -360,6 +413,12 @@ public class RunningState {
         
         int mRunningSeq;
         ActivityManager.RunningAppProcessInfo mRunningProcessInfo;
+
+        // Last PSS sample in kB, and the pid, importance and time it was taken at
+        long mPss;
+        int mPssPid;
+        int mPssImportance;
+        long mPssTime;
         
         MergedItem mMergedItem;
 
@@ -378,21 +437,16 @@ public class RunningState {
             mProcessName = processName;
         }
         
-        void ensureLabel(PackageManager pm) {
+        void ensureLabel(PackageMetadataCache cache) {
             if (mLabel != null) {
                 return;
             }
             
-            try {
-                ApplicationInfo ai = pm.getApplicationInfo(mProcessName,
-                        PackageManager.GET_UNINSTALLED_PACKAGES);
-                if (ai.uid == mUid) {
-                    mDisplayLabel = ai.loadLabel(pm);
-                    mLabel = mDisplayLabel.toString();
-                    mPackageInfo = ai;
-                    return;
-                }
-            } catch (PackageManager.NameNotFoundException e) {
+            final PackageManager pm = cache.mPm;
+            PackageMetadataCache.Metadata metadata = cache.get(mProcessName);
+            if (metadata != null && metadata.info.uid == mUid) {
+                setLabel(metadata);
+                return;
             }
             
             // If we couldn't get information about the overall
@@ -401,14 +455,10 @@ public class RunningState {
             
             // If there is one package with this uid, that is what we want.
             if (pkgs.length == 1) {
-                try {
-                    ApplicationInfo ai = pm.getApplicationInfo(pkgs[0],
-                            PackageManager.GET_UNINSTALLED_PACKAGES);
-                    mDisplayLabel = ai.loadLabel(pm);
-                    mLabel = mDisplayLabel.toString();
-                    mPackageInfo = ai;
+                metadata = cache.get(pkgs[0]);
+                if (metadata != null) {
+                    setLabel(metadata);
                     return;
-                } catch (PackageManager.NameNotFoundException e) {
                 }
             }
             
@@ -436,24 +486,30 @@ public class RunningState {
             if (mServices.size() > 0) {
                 ApplicationInfo ai = mServices.values().iterator().next()
                         .mServiceInfo.applicationInfo;
-                mPackageInfo = ai;
-                mDisplayLabel = mPackageInfo.loadLabel(pm);
-                mLabel = mDisplayLabel.toString();
+                metadata = cache.get(ai.packageName);
+                if (metadata != null) {
+                    setLabel(metadata);
+                } else {
+                    mPackageInfo = ai;
+                    mDisplayLabel = mPackageInfo.loadLabel(pm);
+                    mLabel = mDisplayLabel.toString();
+                }
                 return;
             }
             
             // Finally... whatever, just pick the first package's name.
-            try {
-                ApplicationInfo ai = pm.getApplicationInfo(pkgs[0],
-                        PackageManager.GET_UNINSTALLED_PACKAGES);
-                mDisplayLabel = ai.loadLabel(pm);
-                mLabel = mDisplayLabel.toString();
-                mPackageInfo = ai;
-                return;
-            } catch (PackageManager.NameNotFoundException e) {
+            metadata = cache.get(pkgs[0]);
+            if (metadata != null) {
+                setLabel(metadata);
             }
         }
 
+        private void setLabel(PackageMetadataCache.Metadata metadata) {
+            mDisplayLabel = metadata.label;
+            mLabel = mDisplayLabel.toString();
+            mPackageInfo = metadata.info;
+        }
+
         boolean updateService(Context context, ActivityManager.RunningServiceInfo service) {
             final PackageManager pm = context.getPackageManager();
 
@@ -464,9 +520,8 @@ public class RunningState {
                 si = new ServiceItem(mUserId);
                 si.mRunningService = service;
                 try {
-                    si.mServiceInfo = ActivityThread.getPackageManager().getServiceInfo(
-                            service.service, PackageManager.GET_UNINSTALLED_PACKAGES,
-                            UserHandle.getUserId(service.uid));
+                    si.mServiceInfo = PackageMetadataCache.getInstance(context).getServiceInfo(
+                            service.service, UserHandle.getUserId(service.uid));
 
                     if (si.mServiceInfo == null) {
                         Log.d("RunningService", "getServiceInfo returned null for: "
@@ -513,6 +568,10 @@ public class RunningState {
             return changed;
         }
         
+        int getImportance() {
+            return mRunningProcessInfo != null ? mRunningProcessInfo.importance : 0;
+        }
+
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
             if (mCurSeq == curSeq) {
@@ -529,7 +588,7 @@ public class RunningState {
             return false;
         }
         
-        boolean buildDependencyChain(Context context, PackageManager pm, int curSeq) {
+        boolean buildDependencyChain(Context context, PackageMetadataCache cache, int curSeq) {
             final int NP = mDependentProcesses.size();
             boolean changed = false;
             for (int i=0; i<NP; i++) {
@@ -539,8 +598,8 @@ public class RunningState {
                     proc.mClient = this;
                 }
                 proc.mCurSeq = curSeq;
-                proc.ensureLabel(pm);
-                changed |= proc.buildDependencyChain(context, pm, curSeq);
+                proc.ensureLabel(cache);
+                changed |= proc.buildDependencyChain(context, cache, curSeq);
             }
             
             if (mLastNumDependentProcesses != mDependentProcesses.size()) {
@@ -743,9 +802,13 @@ public class RunningState {
         mApplicationContext = context.getApplicationContext();
         mAm = (ActivityManager)mApplicationContext.getSystemService(Context.ACTIVITY_SERVICE);
         mPm = mApplicationContext.getPackageManager();
+        mMetadataCache = PackageMetadataCache.getInstance(mApplicationContext);
         mUm = (UserManager)mApplicationContext.getSystemService(Context.USER_SERVICE);
         mMyUserId = UserHandle.myUserId();
         mHideManagedProfiles = mMyUserId != UserHandle.USER_OWNER;
+        final Resources res = mApplicationContext.getResources();
+        mPssMaxAge = res.getInteger(R.integer.config_running_processes_pss_max_age);
+        mMaxPssSamples = res.getInteger(R.integer.config_running_processes_pss_samples);
         mResumed = false;
         mBackgroundThread = new HandlerThread("RunningState:Background");
         mBackgroundThread.start();
@@ -759,22 +822,52 @@ public class RunningState {
             // TODO: The set of users may have changed too, so we should probably recompute it
             // each time, but that might be costly. See http://b/18696308
             if (mInterestingConfigChanges.applyNewConfig(mApplicationContext.getResources())) {
+                mMetadataCache.clear();
                 mHaveData = false;
                 mBackgroundHandler.removeMessages(MSG_RESET_CONTENTS);
                 mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
                 mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
             }
-            if (!mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS)) {
-                mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
-            }
+            // A backed off update may be far away, so always update now
+            mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+            mBackgroundHandler.sendMessage(
+                    mBackgroundHandler.obtainMessage(MSG_UPDATE_CONTENTS, 1, 0));
             mHandler.sendEmptyMessage(MSG_UPDATE_TIME);
         }
     }
 
+    /**
+     * Update right away, and poll at the base rate again, such as after the
+     * user stopped something.
+     */
     void updateNow() {
         synchronized (mLock) {
             mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
-            mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
+            mBackgroundHandler.sendMessage(
+                    mBackgroundHandler.obtainMessage(MSG_UPDATE_CONTENTS, 1, 0));
+        }
+    }
+
+    /**
+     * Sample the PSS of all processes of the given item on an update right
+     * away, such as when the user looks at its details.
+     */
+    void refreshPssNow(MergedItem item) {
+        synchronized (mLock) {
+            addPssRefreshPids(item);
+        }
+        updateNow();
+    }
+
+    private void addPssRefreshPids(MergedItem item) {
+        if (item.mProcess != null && item.mProcess.mPid > 0) {
+            mPssRefreshPids.put(item.mProcess.mPid, true);
+        }
+        for (int i=0; i<item.mOtherProcesses.size(); i++) {
+            mPssRefreshPids.put(item.mOtherProcesses.get(i).mPid, true);
+        }
+        for (int i=0; i<item.mChildren.size(); i++) {
+            addPssRefreshPids(item.mChildren.get(i));
         }
     }
 
@@ -827,6 +920,23 @@ public class RunningState {
         mUsers.clear();
     }
 
+    /**
+     * Whether the dependent processes of the given item are the ones found
+     * in mProcessItems, from firstProc up to its last process.
+     */
+    private boolean hasOtherProcesses(MergedItem item, int firstProc) {
+        final int N = mProcessItems.size() - 1 - firstProc;
+        if (item.mOtherProcesses.size() != N) {
+            return false;
+        }
+        for (int i=0; i<N; i++) {
+            if (item.mOtherProcesses.get(i) != mProcessItems.get(firstProc + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void addOtherUserItem(Context context, ArrayList<MergedItem> newMergedItems,
             SparseArray<MergedItem> userItems, MergedItem newItem) {
         MergedItem userItem = userItems.get(newItem.mUserId);
@@ -846,7 +956,10 @@ public class RunningState {
                 userItem = new MergedItem(newItem.mUserId);
                 userItems.put(newItem.mUserId, userItem);
             } else {
-                userItem.mChildren.clear();
+                // Read by refreshPssNow() from the UI thread
+                synchronized (mLock) {
+                    userItem.mChildren.clear();
+                }
             }
             userItem.mCurSeq = mSequence;
             if (userState == null) {
@@ -857,12 +970,12 @@ public class RunningState {
             }
             newMergedItems.add(userItem);
         }
-        userItem.mChildren.add(newItem);
+        synchronized (mLock) {
+            userItem.mChildren.add(newItem);
+        }
     }
 
     private boolean update(Context context, ActivityManager am) {
-        final PackageManager pm = context.getPackageManager();
-
         mSequence++;
         
         boolean changed = false;
@@ -1015,7 +1128,7 @@ public class RunningState {
                 }
                 proc.mCurSeq = mSequence;
                 proc.mInteresting = true;
-                proc.ensureLabel(pm);
+                proc.ensureLabel(mMetadataCache);
             } else {
                 proc.mInteresting = false;
             }
@@ -1072,7 +1185,7 @@ public class RunningState {
         for (int i=0; i<NAP; i++) {
             ProcessItem proc = mServiceProcessesByPid.valueAt(i);
             if (proc.mCurSeq == mSequence) {
-                changed |= proc.buildDependencyChain(context, pm, mSequence);
+                changed |= proc.buildDependencyChain(context, mMetadataCache, mSequence);
             }
         }
         
@@ -1084,7 +1197,7 @@ public class RunningState {
             while (pit.hasNext()) {
                 ProcessItem pi = pit.next();
                 if (pi.mCurSeq == mSequence) {
-                    pi.ensureLabel(pm);
+                    pi.ensureLabel(mMetadataCache);
                     if (pi.mPid == 0) {
                         // Sanity: a non-process can't be dependent on
                         // anything.
@@ -1124,7 +1237,8 @@ public class RunningState {
 
         if (changed) {
             // First determine an order for the services.
-            ArrayList<ProcessItem> sortedProcesses = new ArrayList<ProcessItem>();
+            final ArrayList<ProcessItem> sortedProcesses = mTmpSortedProcesses;
+            sortedProcesses.clear();
             for (int i=0; i<mServiceProcessesByName.size(); i++) {
                 for (ProcessItem pi : mServiceProcessesByName.valueAt(i).values()) {
                     pi.mIsSystem = false;
@@ -1150,8 +1264,10 @@ public class RunningState {
             
             Collections.sort(sortedProcesses, mServiceProcessComparator);
             
-            ArrayList<BaseItem> newItems = new ArrayList<BaseItem>();
-            ArrayList<MergedItem> newMergedItems = new ArrayList<MergedItem>();
+            final ArrayList<BaseItem> newItems = mTmpItems;
+            final ArrayList<MergedItem> newMergedItems = mTmpMergedItems;
+            newItems.clear();
+            newMergedItems.clear();
             mProcessItems.clear();
             for (int i=0; i<sortedProcesses.size(); i++) {
                 ProcessItem pi = sortedProcesses.get(i);
@@ -1168,7 +1284,7 @@ public class RunningState {
                 
                 // Now add the services running in it.
                 MergedItem mergedItem = null;
-                boolean haveAllMerged = false;
+                boolean haveAllMerged = true;
                 boolean needDivider = false;
                 for (ServiceItem si : pi.mServices.values()) {
                     si.mNeedDivider = needDivider;
@@ -1184,8 +1300,12 @@ public class RunningState {
                     }
                 }
                 
-                if (!haveAllMerged || mergedItem == null
-                        || mergedItem.mServices.size() != pi.mServices.size()) {
+                // The dependent processes may have changed even when the
+                // services did not.  The UI reads published items without
+                // the lock, so they are replaced rather than modified.
+                if (!haveAllMerged || mergedItem == null || mergedItem.mProcess != pi
+                        || mergedItem.mServices.size() != pi.mServices.size()
+                        || !hasOtherProcesses(mergedItem, firstProc)) {
                     // Whoops, we need to build a new MergedItem!
                     mergedItem = new MergedItem(pi.mUserId);
                     for (ServiceItem si : pi.mServices.values()) {
@@ -1193,7 +1313,6 @@ public class RunningState {
                         si.mMergedItem = mergedItem;
                     }
                     mergedItem.mProcess = pi;
-                    mergedItem.mOtherProcesses.clear();
                     for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
                         mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
                     }
@@ -1238,10 +1357,19 @@ public class RunningState {
                 }
             }
 
+            // Only publish new lists when the items differ, so that the UI
+            // can keep its current ones otherwise.
             synchronized (mLock) {
-                mItems = newItems;
-                mMergedItems = newMergedItems;
+                if (!newItems.equals(mItems)) {
+                    mItems = new ArrayList<BaseItem>(newItems);
+                }
+                if (!newMergedItems.equals(mMergedItems)) {
+                    mMergedItems = new ArrayList<MergedItem>(newMergedItems);
+                }
             }
+            sortedProcesses.clear();
+            newItems.clear();
+            newMergedItems.clear();
         }
         
         // Count number of interesting other (non-active) processes, and
@@ -1280,55 +1408,95 @@ public class RunningState {
         ArrayList<MergedItem> newBackgroundItems = null;
         ArrayList<MergedItem> newUserBackgroundItems = null;
         boolean diffUsers = false;
-        try {
-            final int numProc = mAllProcessItems.size();
-            int[] pids = new int[numProc];
-            for (int i=0; i<numProc; i++) {
-                pids[i] = mAllProcessItems.get(i).mPid;
-            }
-            long[] pss = ActivityManagerNative.getDefault()
-                    .getProcessPss(pids);
-            int bgIndex = 0;
-            for (int i=0; i<pids.length; i++) {
+
+        // Sample the PSS of processes whose pid or importance changed since
+        // their last sample, or that were asked for.  Samples that got too
+        // old are refreshed in turn, a few per update.
+        final long now = SystemClock.uptimeMillis();
+        final int numProc = mAllProcessItems.size();
+        boolean processesChanged = false;
+        int numStale = 0;
+        int lastStale = mNextPssIndex - 1;
+        mTmpPssProcesses.clear();
+        synchronized (mLock) {
+            for (int n=0; n<numProc; n++) {
+                final int i = (mNextPssIndex + n) % numProc;
                 ProcessItem proc = mAllProcessItems.get(i);
-                changed |= proc.updateSize(context, pss[i], mSequence);
-                if (proc.mCurSeq == mSequence) {
-                    serviceProcessMemory += proc.mSize;
-                } else if (proc.mRunningProcessInfo.importance >=
-                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND) {
-                    backgroundProcessMemory += proc.mSize;
-                    MergedItem mergedItem;
-                    if (newBackgroundItems != null) {
+                if (proc.mPssPid != proc.mPid || proc.mPssImportance != proc.getImportance()) {
+                    processesChanged = true;
+                } else if (mPssRefreshPids.get(proc.mPid)) {
+                    // Explicitly asked for
+                } else if (now - proc.mPssTime >= mPssMaxAge && numStale < mMaxPssSamples) {
+                    numStale++;
+                    lastStale = i;
+                } else {
+                    continue;
+                }
+                mTmpPssProcesses.add(proc);
+            }
+            mPssRefreshPids.clear();
+        }
+        mNextPssIndex = numProc > 0 ? (lastStale + 1) % numProc : 0;
+        final int numPss = mTmpPssProcesses.size();
+        if (numPss > 0) {
+            try {
+                int[] pids = new int[numPss];
+                for (int i=0; i<numPss; i++) {
+                    pids[i] = mTmpPssProcesses.get(i).mPid;
+                }
+                long[] pss = ActivityManagerNative.getDefault()
+                        .getProcessPss(pids);
+                for (int i=0; i<numPss; i++) {
+                    ProcessItem proc = mTmpPssProcesses.get(i);
+                    proc.mPss = pss[i];
+                    proc.mPssPid = proc.mPid;
+                    proc.mPssImportance = proc.getImportance();
+                    proc.mPssTime = now;
+                }
+            } catch (RemoteException e) {
+            }
+            mTmpPssProcesses.clear();
+        }
+
+        int bgIndex = 0;
+        for (int i=0; i<numProc; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            changed |= proc.updateSize(context, proc.mPss, mSequence);
+            if (proc.mCurSeq == mSequence) {
+                serviceProcessMemory += proc.mSize;
+            } else if (proc.mRunningProcessInfo.importance >=
+                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND) {
+                backgroundProcessMemory += proc.mSize;
+                MergedItem mergedItem;
+                if (newBackgroundItems != null) {
+                    mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
+                    proc.mMergedItem.mProcess = proc;
+                    diffUsers |= mergedItem.mUserId != mMyUserId;
+                    newBackgroundItems.add(mergedItem);
+                } else {
+                    if (bgIndex >= mBackgroundItems.size()
+                            || mBackgroundItems.get(bgIndex).mProcess != proc) {
+                        newBackgroundItems = new ArrayList<MergedItem>(numBackgroundProcesses);
+                        for (int bgi=0; bgi<bgIndex; bgi++) {
+                            mergedItem = mBackgroundItems.get(bgi);
+                            diffUsers |= mergedItem.mUserId != mMyUserId;
+                            newBackgroundItems.add(mergedItem);
+                        }
                         mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
                         proc.mMergedItem.mProcess = proc;
                         diffUsers |= mergedItem.mUserId != mMyUserId;
                         newBackgroundItems.add(mergedItem);
                     } else {
-                        if (bgIndex >= mBackgroundItems.size()
-                                || mBackgroundItems.get(bgIndex).mProcess != proc) {
-                            newBackgroundItems = new ArrayList<MergedItem>(numBackgroundProcesses);
-                            for (int bgi=0; bgi<bgIndex; bgi++) {
-                                mergedItem = mBackgroundItems.get(bgi);
-                                diffUsers |= mergedItem.mUserId != mMyUserId;
-                                newBackgroundItems.add(mergedItem);
-                            }
-                            mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                            proc.mMergedItem.mProcess = proc;
-                            diffUsers |= mergedItem.mUserId != mMyUserId;
-                            newBackgroundItems.add(mergedItem);
-                        } else {
-                            mergedItem = mBackgroundItems.get(bgIndex);
-                        }
+                        mergedItem = mBackgroundItems.get(bgIndex);
                     }
-                    mergedItem.update(context, true);
-                    mergedItem.updateSize(context);
-                    bgIndex++;
-                } else if (proc.mRunningProcessInfo.importance <=
-                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
-                    foregroundProcessMemory += proc.mSize;
                 }
+                mergedItem.update(context, true);
+                mergedItem.updateSize(context);
+                bgIndex++;
+            } else if (proc.mRunningProcessInfo.importance <=
+                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
+                foregroundProcessMemory += proc.mSize;
             }
-        } catch (RemoteException e) {
         }
         
         if (newBackgroundItems == null) {
@@ -1399,10 +1567,51 @@ public class RunningState {
                 mLock.notifyAll();
             }
         }
-        
+
+        mLastUpdateUnchanged = !changed && !processesChanged;
         return changed;
     }
     
+    /**
+     * Load the icons of the current items, and the labels of the background
+     * ones if they are shown, so that the UI does not have to.
+     *
+     * @return true if any label was loaded.
+     */
+    private boolean resolveMetadata() {
+        final ArrayList<MergedItem> mergedItems;
+        final ArrayList<MergedItem> backgroundItems;
+        synchronized (mLock) {
+            mergedItems = mMergedItems;
+            backgroundItems = mWatchingBackgroundItems ? mBackgroundItems : null;
+        }
+        for (int i=0; i<mergedItems.size(); i++) {
+            resolveIcon(mergedItems.get(i));
+        }
+        boolean changed = false;
+        if (backgroundItems != null) {
+            for (int i=0; i<backgroundItems.size(); i++) {
+                MergedItem item = backgroundItems.get(i);
+                if (item.mPackageInfo == null && item.mProcess != null) {
+                    item.mProcess.ensureLabel(mMetadataCache);
+                    synchronized (mLock) {
+                        item.mPackageInfo = item.mProcess.mPackageInfo;
+                        item.mDisplayLabel = item.mProcess.mDisplayLabel;
+                    }
+                    changed |= item.mPackageInfo != null;
+                }
+                resolveIcon(item);
+            }
+        }
+        return changed;
+    }
+
+    private void resolveIcon(MergedItem item) {
+        if (item.mUser == null && item.mPackageInfo instanceof ApplicationInfo) {
+            mMetadataCache.getIcon((ApplicationInfo)item.mPackageInfo);
+        }
+    }
+
     ArrayList<BaseItem> getCurrentItems() {
         synchronized (mLock) {
             return mItems;
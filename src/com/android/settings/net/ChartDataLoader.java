@@ -26,10 +26,12 @@ import static android.text.format.DateUtils.HOUR_IN_MILLIS;
 import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
 import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.util.SparseBooleanArray;
 
 import com.android.settings.DataUsageSummary.AppItem;
 
@@ -91,19 +93,21 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         if (app != null) {
             // load stats for current uid and template
             final int size = app.uids.size();
+            final SparseBooleanArray hasDefault = new SparseBooleanArray(size);
+            final SparseBooleanArray hasForeground = new SparseBooleanArray(size);
+            findUidsWithHistory(template, app, hasDefault, hasForeground);
+
             for (int i = 0; i < size; i++) {
                 final int uid = app.uids.keyAt(i);
-                data.detailDefault = collectHistoryForUid(
-                        template, uid, SET_DEFAULT, data.detailDefault);
-                data.detailForeground = collectHistoryForUid(
-                        template, uid, SET_FOREGROUND, data.detailForeground);
+                if (hasDefault.get(uid)) {
+                    collectHistoryForUid(data, template, uid, SET_DEFAULT);
+                }
+                if (hasForeground.get(uid)) {
+                    collectHistoryForUid(data, template, uid, SET_FOREGROUND);
+                }
             }
 
-            if (size > 0) {
-                data.detail = new NetworkStatsHistory(data.detailForeground.getBucketDuration());
-                data.detail.recordEntireHistory(data.detailDefault);
-                data.detail.recordEntireHistory(data.detailForeground);
-            } else {
+            if (data.detail == null) {
                 data.detailDefault = new NetworkStatsHistory(HOUR_IN_MILLIS);
                 data.detailForeground = new NetworkStatsHistory(HOUR_IN_MILLIS);
                 data.detail = new NetworkStatsHistory(HOUR_IN_MILLIS);
@@ -126,20 +130,64 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
     }
 
     /**
-     * Collect {@link NetworkStatsHistory} for the requested UID, combining with
-     * an existing {@link NetworkStatsHistory} if provided.
+     * Find which of the UIDs of the given item have any history in each set,
+     * so that only those histories are requested. A single summary replaces a
+     * history request per UID and set, most of which are empty for the shared
+     * system UIDs.
      */
-    private NetworkStatsHistory collectHistoryForUid(
-            NetworkTemplate template, int uid, int set, NetworkStatsHistory existing)
+    private void findUidsWithHistory(NetworkTemplate template, AppItem app,
+            SparseBooleanArray hasDefault, SparseBooleanArray hasForeground)
             throws RemoteException {
+        final int size = app.uids.size();
+        if (size <= 1) {
+            // Not worth a summary of all the UIDs
+            for (int i = 0; i < size; i++) {
+                hasDefault.put(app.uids.keyAt(i), true);
+                hasForeground.put(app.uids.keyAt(i), true);
+            }
+            return;
+        }
+
+        final NetworkStats summary = mSession.getSummaryForAllUid(
+                template, Long.MIN_VALUE, Long.MAX_VALUE, false);
+        NetworkStats.Entry entry = null;
+        final int summarySize = summary != null ? summary.size() : 0;
+        for (int i = 0; i < summarySize; i++) {
+            entry = summary.getValues(i, entry);
+            if (!app.uids.get(entry.uid) || entry.rxBytes + entry.txBytes == 0) {
+                continue;
+            }
+            if (entry.set == SET_DEFAULT) {
+                hasDefault.put(entry.uid, true);
+            } else if (entry.set == SET_FOREGROUND) {
+                hasForeground.put(entry.uid, true);
+            }
+        }
+    }
+
+    /**
+     * Collect {@link NetworkStatsHistory} for the requested UID and set,
+     * recording it into both the history of that set and the total history
+     * of the item.
+     */
+    private void collectHistoryForUid(ChartData data, NetworkTemplate template, int uid,
+            int set) throws RemoteException {
         final NetworkStatsHistory history = mSession.getHistoryForUid(
                 template, uid, set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
 
-        if (existing != null) {
-            existing.recordEntireHistory(history);
-            return existing;
+        if (data.detail == null) {
+            final long bucketDuration = history.getBucketDuration();
+            final int initialSize = history.size();
+            data.detailDefault = new NetworkStatsHistory(bucketDuration, initialSize);
+            data.detailForeground = new NetworkStatsHistory(bucketDuration, initialSize);
+            data.detail = new NetworkStatsHistory(bucketDuration, initialSize);
+        }
+
+        if (set == SET_DEFAULT) {
+            data.detailDefault.recordEntireHistory(history);
         } else {
-            return history;
+            data.detailForeground.recordEntireHistory(history);
         }
+        data.detail.recordEntireHistory(history);
     }
 }
@@ -28,6 +28,8 @@ import android.net.NetworkPolicyManager;
 import android.net.NetworkTemplate;
 import android.net.wifi.WifiInfo;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.text.format.Time;
 
@@ -45,9 +47,23 @@ public class NetworkPolicyEditor {
 
     public static final boolean ENABLE_SPLIT_POLICIES = false;
 
+    // Changes made within this delay are written together
+    private static final long WRITE_DELAY_MS = 300;
+
     private NetworkPolicyManager mPolicyManager;
     private ArrayList<NetworkPolicy> mPolicies = Lists.newArrayList();
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Runnable> mWriteCallbacks = Lists.newArrayList();
+    private boolean mWritePending;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startWrite();
+        }
+    };
+
     public NetworkPolicyEditor(NetworkPolicyManager policyManager) {
         mPolicyManager = checkNotNull(policyManager);
     }
@@ -76,6 +92,36 @@ public class NetworkPolicyEditor {
     }
 
     public void writeAsync() {
+        writeAsync(null);
+    }
+
+    /**
+     * Schedule a write of all policies. Writes requested within
+     * {@link #WRITE_DELAY_MS} of each other are coalesced into a single
+     * {@link NetworkPolicyManager#setNetworkPolicies(NetworkPolicy[])} call.
+     *
+     * @param callback run on the main thread once the policies are written,
+     *            or null.
+     */
+    public void writeAsync(Runnable callback) {
+        synchronized (mWriteCallbacks) {
+            if (callback != null) {
+                mWriteCallbacks.add(callback);
+            }
+            if (mWritePending) return;
+            mWritePending = true;
+        }
+        mHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+    }
+
+    private void startWrite() {
+        final Runnable[] callbacks;
+        synchronized (mWriteCallbacks) {
+            mWritePending = false;
+            callbacks = mWriteCallbacks.toArray(new Runnable[mWriteCallbacks.size()]);
+            mWriteCallbacks.clear();
+        }
+
         // TODO: consider making more robust by passing through service
         final NetworkPolicy[] policies = mPolicies.toArray(new NetworkPolicy[mPolicies.size()]);
         new AsyncTask<Void, Void, Void>() {
@@ -84,6 +130,13 @@ public class NetworkPolicyEditor {
                 write(policies);
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                for (Runnable callback : callbacks) {
+                    callback.run();
+                }
+            }
         }.execute();
     }
 
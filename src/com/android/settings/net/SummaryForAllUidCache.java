@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.IFACE_ALL;
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.TAG_NONE;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+import static android.text.format.DateUtils.MINUTE_IN_MILLIS;
+
+import android.content.Context;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import libcore.util.Objects;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of the per-UID summaries loaded by {@link SummaryForAllUidLoader},
+ * one file per {@link NetworkTemplate} and cycle. Only the total bytes of each
+ * UID are kept, which is all the data usage list shows.
+ *
+ * The summary of a cycle that had ended when it was cached never changes, so
+ * it can be used instead of querying the stats service again. As the stats
+ * service only records traffic when polling and in buckets, a cycle is only
+ * considered ended once a poll interval and a bucket have passed its end.
+ *
+ * The subscriber ID of a template is only stored hashed, so that the IMSI is
+ * never written to disk.
+ */
+public class SummaryForAllUidCache {
+    private static final String TAG = "DataUsage";
+
+    private static final int VERSION = 2;
+    private static final String DIR_NAME = "data_usage_summaries";
+    private static final int MAX_FILES = 24;
+
+    // Defaults of the stats service
+    private static final long DEFAULT_POLL_INTERVAL = 30 * MINUTE_IN_MILLIS;
+    private static final long DEFAULT_UID_BUCKET_DURATION = 2 * HOUR_IN_MILLIS;
+
+    /**
+     * A cached summary.
+     */
+    public static class Summary {
+        public final NetworkStats stats;
+        /** True if the cycle had ended when the summary was cached */
+        public final boolean complete;
+
+        private Summary(NetworkStats stats, boolean complete) {
+            this.stats = stats;
+            this.complete = complete;
+        }
+    }
+
+    private static final Comparator<File> OLDEST_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            return Long.compare(lhs.lastModified(), rhs.lastModified());
+        }
+    };
+
+    private final File mDir;
+    // Time after the end of a cycle until all its traffic has been recorded
+    private final long mSettleDuration;
+
+    public SummaryForAllUidCache(Context context) {
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+        final long pollInterval = Settings.Global.getLong(context.getContentResolver(),
+                Settings.Global.NETSTATS_POLL_INTERVAL, DEFAULT_POLL_INTERVAL);
+        final long bucketDuration = Settings.Global.getLong(context.getContentResolver(),
+                Settings.Global.NETSTATS_UID_BUCKET_DURATION, DEFAULT_UID_BUCKET_DURATION);
+        mSettleDuration = pollInterval + bucketDuration;
+    }
+
+    /**
+     * Return the cached summary of the given template and cycle, or null.
+     */
+    public Summary read(NetworkTemplate template, long start, long end) {
+        final AtomicFile file = getFile(template, start, end);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != VERSION
+                    || in.readInt() != template.getMatchRule()
+                    || !Objects.equal(readString(in), hashSubscriberId(template.getSubscriberId()))
+                    || !Objects.equal(readString(in), template.getNetworkId())
+                    || in.readLong() != start
+                    || in.readLong() != end) {
+                return null;
+            }
+            final long writtenTime = in.readLong();
+            final int size = in.readInt();
+            final NetworkStats stats = new NetworkStats(SystemClock.elapsedRealtime(), size);
+            final NetworkStats.Entry entry = new NetworkStats.Entry();
+            entry.iface = IFACE_ALL;
+            entry.set = SET_DEFAULT;
+            entry.tag = TAG_NONE;
+            for (int i = 0; i < size; i++) {
+                entry.uid = in.readInt();
+                entry.rxBytes = in.readLong();
+                entry.txBytes = in.readLong();
+                stats.addValues(entry);
+            }
+            return new Summary(stats, writtenTime >= end + mSettleDuration);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "problem reading cached summary", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Cache the summary of the given template and cycle.
+     */
+    public void write(NetworkTemplate template, long start, long end, NetworkStats stats) {
+        // Collapse the sets and tags, only the totals of each uid are shown
+        final SparseArray<long[]> totals = new SparseArray<long[]>();
+        NetworkStats.Entry entry = null;
+        final int size = stats.size();
+        for (int i = 0; i < size; i++) {
+            entry = stats.getValues(i, entry);
+            if (entry.tag != TAG_NONE) {
+                continue;
+            }
+            long[] total = totals.get(entry.uid);
+            if (total == null) {
+                total = new long[2];
+                totals.put(entry.uid, total);
+            }
+            total[0] += entry.rxBytes;
+            total[1] += entry.txBytes;
+        }
+
+        mDir.mkdirs();
+        final AtomicFile file = getFile(template, start, end);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(template.getMatchRule());
+            writeString(out, hashSubscriberId(template.getSubscriberId()));
+            writeString(out, template.getNetworkId());
+            out.writeLong(start);
+            out.writeLong(end);
+            out.writeLong(System.currentTimeMillis());
+            final int count = totals.size();
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(totals.keyAt(i));
+                out.writeLong(totals.valueAt(i)[0]);
+                out.writeLong(totals.valueAt(i)[1]);
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "problem writing cached summary", e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
+
+        trim();
+    }
+
+    private AtomicFile getFile(NetworkTemplate template, long start, long end) {
+        // Collisions are detected by the header of the file
+        final int hash = Arrays.hashCode(new long[] { template.hashCode(), start, end });
+        return new AtomicFile(new File(mDir, Integer.toHexString(hash)));
+    }
+
+    private void trim() {
+        final File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, OLDEST_FIRST);
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static String hashSubscriberId(String subscriberId) {
+        if (subscriberId == null) {
+            return null;
+        }
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(
+                    subscriberId.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -22,8 +22,15 @@ import android.net.INetworkStatsSession;
 import android.net.NetworkStats;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.RemoteException;
 
+/**
+ * Loader for the summary of all UIDs over a cycle. Cached summaries are used
+ * instead of the stats service for cycles that have ended, and delivered
+ * before the live summary for the current cycle.
+ */
 public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_START = "start";
@@ -31,6 +38,8 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
 
     private final INetworkStatsSession mSession;
     private final Bundle mArgs;
+    private final SummaryForAllUidCache mCache;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     public static Bundle buildArgs(NetworkTemplate template, long start, long end) {
         final Bundle args = new Bundle();
@@ -44,6 +53,19 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
         super(context);
         mSession = session;
         mArgs = args;
+        mCache = new SummaryForAllUidCache(context);
+    }
+
+    public NetworkTemplate getTemplate() {
+        return mArgs.getParcelable(KEY_TEMPLATE);
+    }
+
+    public long getStart() {
+        return mArgs.getLong(KEY_START);
+    }
+
+    public long getEnd() {
+        return mArgs.getLong(KEY_END);
     }
 
     @Override
@@ -58,11 +80,36 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
         final long start = mArgs.getLong(KEY_START);
         final long end = mArgs.getLong(KEY_END);
 
+        final SummaryForAllUidCache.Summary cached = mCache.read(template, start, end);
+        if (cached != null) {
+            if (cached.complete) {
+                return cached.stats;
+            }
+            // Show the cached summary while the live one is loading
+            deliverCachedResult(cached.stats);
+        }
+
+        final NetworkStats stats;
         try {
-            return mSession.getSummaryForAllUid(template, start, end, false);
+            stats = mSession.getSummaryForAllUid(template, start, end, false);
         } catch (RemoteException e) {
-            return null;
+            return cached != null ? cached.stats : null;
         }
+        if (stats != null) {
+            mCache.write(template, start, end, stats);
+        }
+        return stats;
+    }
+
+    private void deliverCachedResult(final NetworkStats stats) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isStarted() && !isAbandoned()) {
+                    deliverResult(stats);
+                }
+            }
+        });
     }
 
     @Override
@@ -16,13 +16,13 @@
 
 package com.android.settings.net;
 
+import android.app.ActivityManager;
 import android.app.AppGlobals;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
@@ -33,7 +33,7 @@ import android.os.UserHandle;
 import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
-import android.util.SparseArray;
+import android.util.LruCache;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
@@ -41,11 +41,23 @@ import com.android.settings.Utils;
 /**
  * Return details about a specific UID, handling special cases like
  * {@link TrafficStats#UID_TETHERING} and {@link UserInfo}.
+ *
+ * Resolved details are kept in a cache bounded by the size of their icons,
+ * which are scaled down to the size they are displayed at. The labels of the
+ * evicted details are kept in a smaller cache of their own.
  */
 public class UidDetailProvider {
     private static final String TAG = "DataUsage";
+
+    /** Part of the memory class used for the icons, 1/32 */
+    private static final int ICON_CACHE_MEMORY_SHIFT = 5;
+    private static final int MIN_ICON_CACHE_BYTES = 1024 * 1024;
+    private static final int MAX_CACHED_LABELS = 256;
+
     private final Context mContext;
-    private final SparseArray<UidDetail> mUidDetailCache;
+    private final int mIconSize;
+    private final LruCache<Integer, UidDetail> mUidDetailCache;
+    private final LruCache<Integer, UidDetail> mUidLabelCache;
 
     public static final int OTHER_USER_RANGE_START = -2000;
 
@@ -63,24 +75,40 @@ public class UidDetailProvider {
 
     public UidDetailProvider(Context context) {
         mContext = context.getApplicationContext();
-        mUidDetailCache = new SparseArray<UidDetail>();
+        mIconSize = mContext.getResources().getDimensionPixelSize(
+                android.R.dimen.app_icon_size);
+
+        final ActivityManager am = (ActivityManager) mContext.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        final int maxBytes = Math.max(MIN_ICON_CACHE_BYTES,
+                (am.getMemoryClass() * 1024 * 1024) >> ICON_CACHE_MEMORY_SHIFT);
+        mUidLabelCache = new LruCache<Integer, UidDetail>(MAX_CACHED_LABELS);
+        mUidDetailCache = new LruCache<Integer, UidDetail>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer uid, UidDetail detail) {
+                return Utils.getIconByteCount(detail.icon, mIconSize);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer uid, UidDetail oldDetail,
+                    UidDetail newDetail) {
+                if (evicted) {
+                    mUidLabelCache.put(uid, copyLabels(oldDetail));
+                }
+            }
+        };
     }
 
     public void clearCache() {
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.clear();
-        }
+        mUidDetailCache.evictAll();
+        mUidLabelCache.evictAll();
     }
 
     /**
      * Resolve best descriptive label for the given UID.
      */
     public UidDetail getUidDetail(int uid, boolean blocking) {
-        UidDetail detail;
-
-        synchronized (mUidDetailCache) {
-            detail = mUidDetailCache.get(uid);
-        }
+        UidDetail detail = mUidDetailCache.get(uid);
 
         if (detail != null) {
             return detail;
@@ -89,14 +117,33 @@ public class UidDetailProvider {
         }
 
         detail = buildUidDetail(uid);
+        detail.icon = Utils.scaleIcon(mContext.getResources(), detail.icon, mIconSize);
 
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.put(uid, detail);
-        }
+        mUidDetailCache.put(uid, detail);
+        mUidLabelCache.remove(uid);
 
         return detail;
     }
 
+    /**
+     * Return the labels of the given UID if they were resolved before, even
+     * if its full details have been evicted since, without blocking. The
+     * returned {@link UidDetail} may have no icon.
+     */
+    public UidDetail getCachedUidLabels(int uid) {
+        final UidDetail detail = mUidDetailCache.get(uid);
+        return detail != null ? detail : mUidLabelCache.get(uid);
+    }
+
+    private static UidDetail copyLabels(UidDetail detail) {
+        final UidDetail labels = new UidDetail();
+        labels.label = detail.label;
+        labels.contentDescription = detail.contentDescription;
+        labels.detailLabels = detail.detailLabels;
+        labels.detailContentDescriptions = detail.detailContentDescriptions;
+        return labels;
+    }
+
     /**
      * Build {@link UidDetail} object, blocking until all {@link Drawable}
      * lookup is finished.
@@ -162,9 +209,11 @@ public class UidDetailProvider {
                 detail.detailContentDescriptions = new CharSequence[length];
                 for (int i = 0; i < length; i++) {
                     final String packageName = packageNames[i];
-                    final PackageInfo packageInfo = pm.getPackageInfo(packageName, 0);
-                    final ApplicationInfo appInfo = ipm.getApplicationInfo(packageName,
+                    // A single lookup gives both the package and its application info
+                    final PackageInfo packageInfo = ipm.getPackageInfo(packageName,
                             0 /* no flags */, userId);
+                    final ApplicationInfo appInfo = packageInfo != null
+                            ? packageInfo.applicationInfo : null;
 
                     if (appInfo != null) {
                         detail.detailLabels[i] = appInfo.loadLabel(pm).toString();
@@ -179,8 +228,6 @@ public class UidDetailProvider {
                 }
             }
             detail.contentDescription = um.getBadgedLabelForUser(detail.label, userHandle);
-        } catch (NameNotFoundException e) {
-            Log.w(TAG, "Error while building UI detail for uid "+uid, e);
         } catch (RemoteException e) {
             Log.w(TAG, "Error while building UI detail for uid "+uid, e);
         }
@@ -28,10 +28,17 @@ import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
-import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
@@ -45,16 +52,27 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
@@ -84,6 +102,7 @@ import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INT
 
 import static com.android.settings.search.IndexDatabaseHelper.Tables;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.search.IndexDatabaseHelper.FingerprintColumns;
 
 public class Index {
 
@@ -105,6 +124,11 @@ public class Index {
     public static final int COLUMN_INDEX_ENABLED = 12;
     public static final int COLUMN_INDEX_KEY = 13;
     public static final int COLUMN_INDEX_USER_ID = 14;
+    public static final int COLUMN_INDEX_MATCH_GROUP = 15;
+
+    // Values of the COLUMN_INDEX_MATCH_GROUP column
+    public static final int MATCH_GROUP_PRIMARY = 0;
+    public static final int MATCH_GROUP_SECONDARY = 1;
 
     public static final String ENTRIES_SEPARATOR = "|";
 
@@ -123,7 +147,8 @@ public class Index {
             IndexColumns.INTENT_TARGET_PACKAGE,   // 10
             IndexColumns.INTENT_TARGET_CLASS,     // 11
             IndexColumns.ENABLED,                 // 12
-            IndexColumns.DATA_KEY_REF             // 13
+            IndexColumns.DATA_KEY_REF,            // 13
+            IndexColumns.USER_ID                  // 14
     };
 
     private static final String[] MATCH_COLUMNS_PRIMARY = {
@@ -140,11 +165,92 @@ public class Index {
             IndexColumns.DATA_ENTRIES
     };
 
+    private static final String[] MATCH_COLUMNS_ALL = {
+            IndexColumns.DATA_TITLE,
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_KEYWORDS,
+            IndexColumns.DATA_SUMMARY_ON,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_OFF,
+            IndexColumns.DATA_SUMMARY_OFF_NORMALIZED,
+            IndexColumns.DATA_ENTRIES
+    };
+
+    private static final String MATCH_GROUP = "match_group";
+    private static final String TITLE_PREFIX = "title_prefix";
+    private static final String RECENT = "recent";
+    private static final String HITS = "hits";
+    private static final String SCORE = "score";
+
+    // The query is always the same, only its arguments are changing. This lets SQLite reuse the
+    // compiled statement for every keystroke. Arguments are:
+    // - the MATCH string for the primary columns
+    // - the LIKE pattern of the title prefix, twice
+    // - the min time stamp of a recent saved query
+    // - the MATCH string for all the columns
+    // - the locale
+    private static final String SEARCH_SQL = buildSearchSQL();
+
+    // Rows used for building the PrefixIndex: the SELECT_COLUMNS followed by the normalized
+    // columns. Arguments are the locale.
+    private static final String PREFIX_INDEX_SQL =
+            "SELECT " + TextUtils.join(", ", SELECT_COLUMNS) + ", " +
+                    IndexColumns.DATA_TITLE_NORMALIZED + ", " +
+                    IndexColumns.DATA_SUMMARY_ON_NORMALIZED + ", " +
+                    IndexColumns.DATA_SUMMARY_OFF_NORMALIZED +
+                    " FROM " + Tables.TABLE_PREFS_INDEX +
+                    " WHERE " + IndexColumns.LOCALE + " = ? AND " +
+                    IndexColumns.ENABLED + " = 1" +
+                    " ORDER BY " + IndexColumns.DATA_RANK;
+
+    private static final int PREFIX_INDEX_COLUMN_TITLE_NORMALIZED = SELECT_COLUMNS.length;
+    private static final int PREFIX_INDEX_COLUMN_SUMMARY_ON_NORMALIZED = SELECT_COLUMNS.length + 1;
+    private static final int PREFIX_INDEX_COLUMN_SUMMARY_OFF_NORMALIZED = SELECT_COLUMNS.length + 2;
+
+    // Should match MATCH_COLUMNS_PRIMARY
+    private static final int[] PREFIX_INDEX_COLUMNS_PRIMARY = {
+            COLUMN_INDEX_TITLE,
+            PREFIX_INDEX_COLUMN_TITLE_NORMALIZED,
+            COLUMN_INDEX_KEYWORDS
+    };
+
+    // Should match MATCH_COLUMNS_SECONDARY
+    private static final int[] PREFIX_INDEX_COLUMNS_SECONDARY = {
+            COLUMN_INDEX_SUMMARY_ON,
+            PREFIX_INDEX_COLUMN_SUMMARY_ON_NORMALIZED,
+            COLUMN_INDEX_SUMMARY_OFF,
+            PREFIX_INDEX_COLUMN_SUMMARY_OFF_NORMALIZED,
+            COLUMN_INDEX_ENTRIES
+    };
+
     // Max number of saved search queries (who will be used for proposing suggestions)
     private static long MAX_SAVED_SEARCH_QUERY = 64;
     // Max number of proposed suggestions
     private static final int MAX_PROPOSED_SUGGESTIONS = 5;
 
+    private static final String SUGGESTIONS_SQL =
+            "SELECT " + IndexDatabaseHelper.SavedQueriesColums.QUERY +
+                    " FROM " + Tables.TABLE_SAVED_QUERIES +
+                    " WHERE " + IndexDatabaseHelper.SavedQueriesColums.QUERY +
+                    " LIKE ? ESCAPE '\\'" +
+                    " LIMIT " + MAX_PROPOSED_SUGGESTIONS;
+
+    private static final String RECENT_SAVED_QUERIES_SQL =
+            "SELECT " + IndexDatabaseHelper.SavedQueriesColums.QUERY +
+                    " FROM " + Tables.TABLE_SAVED_QUERIES +
+                    " WHERE " + IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP + " >= ?";
+
+    private static final String RECENT_SUGGESTIONS_SQL =
+            "SELECT " + IndexDatabaseHelper.SavedQueriesColums.QUERY +
+                    " FROM " + Tables.TABLE_SAVED_QUERIES +
+                    " ORDER BY rowId DESC" +
+                    " LIMIT " + MAX_PROPOSED_SUGGESTIONS;
+
+    // Delay for coalescing the saved search queries before writing them
+    private static final long SAVED_QUERIES_WRITE_DELAY_MS = 500;
+
+    private static final int MSG_WRITE_SAVED_QUERIES = 1;
+
     private static final String BASE_AUTHORITY = "com.android.settings";
 
     private static final String EMPTY = "";
@@ -160,6 +266,47 @@ public class Index {
 
     private static final List<String> EMPTY_LIST = Collections.<String>emptyList();
 
+    // Max number of threads used for parsing the indexable resources
+    private static final int MAX_PARSER_THREADS = 4;
+    private static final long PARSER_THREAD_KEEP_ALIVE_SECONDS = 1;
+
+    private static final String INSERT_INDEX_ROW_SQL =
+            "INSERT OR REPLACE INTO " + Tables.TABLE_PREFS_INDEX + " (" +
+                    IndexColumns.DOCID + ", " +
+                    IndexColumns.LOCALE + ", " +
+                    IndexColumns.DATA_RANK + ", " +
+                    IndexColumns.DATA_TITLE + ", " +
+                    IndexColumns.DATA_TITLE_NORMALIZED + ", " +
+                    IndexColumns.DATA_SUMMARY_ON + ", " +
+                    IndexColumns.DATA_SUMMARY_ON_NORMALIZED + ", " +
+                    IndexColumns.DATA_SUMMARY_OFF + ", " +
+                    IndexColumns.DATA_SUMMARY_OFF_NORMALIZED + ", " +
+                    IndexColumns.DATA_ENTRIES + ", " +
+                    IndexColumns.DATA_KEYWORDS + ", " +
+                    IndexColumns.CLASS_NAME + ", " +
+                    IndexColumns.SCREEN_TITLE + ", " +
+                    IndexColumns.INTENT_ACTION + ", " +
+                    IndexColumns.INTENT_TARGET_PACKAGE + ", " +
+                    IndexColumns.INTENT_TARGET_CLASS + ", " +
+                    IndexColumns.ICON + ", " +
+                    IndexColumns.ENABLED + ", " +
+                    IndexColumns.DATA_KEY_REF + ", " +
+                    IndexColumns.USER_ID + ", " +
+                    IndexColumns.INDEXABLE_KEY +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static ThreadPoolExecutor sParserExecutor;
+
+    // Max time given to the remote indexables providers for answering
+    private static final long REMOTE_PROVIDER_TIMEOUT_MS = 2000;
+    // Number of consecutive timeouts before a remote provider is not queried for a while
+    private static final int MAX_REMOTE_PROVIDER_TIMEOUTS = 2;
+    private static final long REMOTE_PROVIDER_BACKOFF_MS = 5 * 60 * 1000;
+    private static final int MAX_REMOTE_PROVIDER_BACKOFF_SHIFT = 4;
+    private static final int MAX_REMOTE_PROVIDER_THREADS = 4;
+
+    private static ThreadPoolExecutor sRemoteProviderExecutor;
+
     private static Index sInstance;
 
     private static final Pattern REMOVE_DIACRITICALS_PATTERN
@@ -200,7 +347,181 @@ public class Index {
         }
     }
 
+    /**
+     * A private class to describe what a SearchIndexableResource has been indexed from. If the
+     * fingerprint of a resource did not change, there is no need to parse and insert it again.
+     */
+    private static class IndexFingerprint {
+        public final String indexableKey;
+        public final int xmlResId;
+        public final int packageVersion;
+        public final int providerHash;
+        public final int nonIndexableKeysHash;
+
+        // Whether the rows have been indexed by a forced update, such as the ones enabling or
+        // disabling the results of a screen. Those rows are left alone by the other updates.
+        public boolean forced;
+
+        // Not persisted, only kept around for indexing the resource
+        public List<String> nonIndexableKeys;
+
+        public IndexFingerprint(String indexableKey, int xmlResId, int packageVersion,
+                int providerHash, int nonIndexableKeysHash) {
+            this.indexableKey = indexableKey;
+            this.xmlResId = xmlResId;
+            this.packageVersion = packageVersion;
+            this.providerHash = providerHash;
+            this.nonIndexableKeysHash = nonIndexableKeysHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexFingerprint)) {
+                return false;
+            }
+            final IndexFingerprint other = (IndexFingerprint) o;
+            return indexableKey.equals(other.indexableKey)
+                    && xmlResId == other.xmlResId
+                    && packageVersion == other.packageVersion
+                    && providerHash == other.providerHash
+                    && nonIndexableKeysHash == other.nonIndexableKeysHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return indexableKey.hashCode();
+        }
+    }
+
+    /**
+     * A private class to describe one row of the Index database. Rows are produced by the parser
+     * threads and written by the thread updating the Index.
+     */
+    private static class IndexRow {
+        public int docId;
+        public String locale;
+        public int rank;
+        public String title;
+        public String normalizedTitle;
+        public String summaryOn;
+        public String normalizedSummaryOn;
+        public String summaryOff;
+        public String normalizedSummaryOff;
+        public String entries;
+        public String keywords;
+        public String className;
+        public String screenTitle;
+        public String intentAction;
+        public String intentTargetPackage;
+        public String intentTargetClass;
+        public int iconResId;
+        public boolean enabled;
+        public String key;
+        public int userId;
+        // The resource the row has been indexed from, null for raw data
+        public String indexableKey;
+
+        // Indices should match the order of the INSERT_INDEX_ROW_SQL columns
+        public void bindTo(SQLiteStatement statement) {
+            statement.clearBindings();
+            statement.bindLong(1, docId);
+            bindString(statement, 2, locale);
+            statement.bindLong(3, rank);
+            bindString(statement, 4, title);
+            bindString(statement, 5, normalizedTitle);
+            bindString(statement, 6, summaryOn);
+            bindString(statement, 7, normalizedSummaryOn);
+            bindString(statement, 8, summaryOff);
+            bindString(statement, 9, normalizedSummaryOff);
+            bindString(statement, 10, entries);
+            bindString(statement, 11, keywords);
+            bindString(statement, 12, className);
+            bindString(statement, 13, screenTitle);
+            bindString(statement, 14, intentAction);
+            bindString(statement, 15, intentTargetPackage);
+            bindString(statement, 16, intentTargetClass);
+            statement.bindLong(17, iconResId);
+            statement.bindLong(18, enabled ? 1 : 0);
+            bindString(statement, 19, key);
+            statement.bindLong(20, userId);
+            bindString(statement, 21, indexableKey);
+        }
+
+        private static void bindString(SQLiteStatement statement, int index, String value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindString(index, value);
+            }
+        }
+    }
+
+    /**
+     * Callback for being notified when a saved search query has been written into the database.
+     */
+    public interface SaveQueryCallback {
+        /**
+         * Called on the main thread.
+         *
+         * @param query the saved query.
+         * @param rowId the row id of the saved query, or -1 if it cannot be saved.
+         */
+        public void onQuerySaved(String query, long rowId);
+    }
+
+    /**
+     * A private class to describe a saved search query waiting to be written
+     */
+    private static class PendingSavedQuery {
+        public final String query;
+        public final long timeStamp;
+        public final List<SaveQueryCallback> callbacks = new ArrayList<SaveQueryCallback>(1);
+
+        public PendingSavedQuery(String query, long timeStamp) {
+            this.query = query;
+            this.timeStamp = timeStamp;
+        }
+    }
+
+    /**
+     * A private class to describe what has been read from a remote indexables provider. Each part
+     * is only set once completely read, so that what has been read can still be used if the
+     * provider does not answer in time.
+     */
+    private static class RemoteIndexables {
+        public final String packageName;
+        public final String authority;
+
+        public volatile boolean started;
+        public volatile List<String> nonIndexableKeys;
+        public volatile List<SearchIndexableData> xmlResources;
+        public volatile List<SearchIndexableData> rawData;
+
+        public RemoteIndexables(String packageName, String authority) {
+            this.packageName = packageName;
+            this.authority = authority;
+        }
+    }
+
+    /**
+     * A private class to describe a remote indexables provider that did not answer in time
+     */
+    private static class ProviderBackoff {
+        public int timeouts;
+        public long retryTime;
+    }
+
     private final AtomicBoolean mIsAvailable = new AtomicBoolean(false);
+    private final Map<String, ProviderBackoff> mProviderBackoffs =
+            new HashMap<String, ProviderBackoff>();
+    private final IndexMetrics mMetrics = new IndexMetrics();
+    private final Map<String, PendingSavedQuery> mPendingSavedQueries =
+            new LinkedHashMap<String, PendingSavedQuery>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private SavedQueriesHandler mSavedQueriesHandler;
+    // Only ever built on the indexing thread, and swapped in once complete
+    private volatile PrefixIndex mPrefixIndex;
+    private volatile List<String> mRecentSavedQueries;
     private final UpdateData mDataToProcess = new UpdateData();
     private Context mContext;
     private final String mBaseAuthority;
@@ -231,122 +552,212 @@ public class Index {
     }
 
     public Cursor search(String query) {
-        final SQLiteDatabase database = getReadableDatabase();
-        final Cursor[] cursors = new Cursor[2];
+        final long current = SystemClock.elapsedRealtime();
+        final String localeStr = Locale.getDefault().toString();
+
+        // Short single term queries are answered from memory
+        final PrefixIndex prefixIndex = getPrefixIndex(localeStr);
+        if (prefixIndex != null && PrefixIndex.canSearch(query)) {
+            final Cursor cursor = prefixIndex.search(query, getRecentSavedQueries());
+            if (cursor != null) {
+                mMetrics.recordSearch(SystemClock.elapsedRealtime() - current);
+                return cursor;
+            }
+        }
 
-        final String primarySql = buildSearchSQL(query, MATCH_COLUMNS_PRIMARY, true);
-        Log.d(LOG_TAG, "Search primary query: " + primarySql);
-        cursors[0] = database.rawQuery(primarySql, null);
+        final String titlePrefix = escapeLikeString(query.trim()) + "%";
+        final long recentTimeStamp = new Date().getTime() - Ranking.RECENT_QUERY_MAX_AGE_MS;
+        final String[] args = new String[] {
+                buildSearchMatchStringForColumns(query, MATCH_COLUMNS_PRIMARY),
+                titlePrefix,
+                titlePrefix,
+                Long.toString(recentTimeStamp),
+                buildSearchMatchStringForColumns(query, MATCH_COLUMNS_ALL),
+                localeStr
+        };
+        final Cursor cursor = getReadableDatabase().rawQuery(SEARCH_SQL, args);
+        // Run the query now, on the calling thread, so that it is measured
+        cursor.getCount();
+        mMetrics.recordSearch(SystemClock.elapsedRealtime() - current);
+        return cursor;
+    }
 
-        // We need to use an EXCEPT operator as negate MATCH queries do not work.
-        StringBuilder sql = new StringBuilder(
-                buildSearchSQL(query, MATCH_COLUMNS_SECONDARY, false));
-        sql.append(" EXCEPT ");
-        sql.append(primarySql);
+    /**
+     * Returns the PrefixIndex for the given locale, or null if it has not been built yet by the
+     * indexing thread. Never builds it on the calling thread.
+     */
+    private PrefixIndex getPrefixIndex(String localeStr) {
+        final PrefixIndex prefixIndex = mPrefixIndex;
+        if (prefixIndex != null && prefixIndex.getLocale().equals(localeStr)) {
+            return prefixIndex;
+        }
+        return null;
+    }
 
-        final String secondarySql = sql.toString();
-        Log.d(LOG_TAG, "Search secondary query: " + secondarySql);
-        cursors[1] = database.rawQuery(secondarySql, null);
+    private PrefixIndex buildPrefixIndex(SQLiteDatabase database, String localeStr) {
+        final long current = System.currentTimeMillis();
 
-        return new MergeCursor(cursors);
-    }
+        final String[] columnNames = Arrays.copyOf(SELECT_COLUMNS, SELECT_COLUMNS.length + 1);
+        columnNames[SELECT_COLUMNS.length] = MATCH_GROUP;
 
-    public Cursor getSuggestions(String query) {
-        final String sql = buildSuggestionsSQL(query);
-        Log.d(LOG_TAG, "Suggestions query: " + sql);
-        return getReadableDatabase().rawQuery(sql, null);
+        final PrefixIndex prefixIndex;
+        final Cursor cursor = database.rawQuery(PREFIX_INDEX_SQL, new String[] { localeStr });
+        try {
+            prefixIndex = new PrefixIndex(localeStr, columnNames, cursor,
+                    PREFIX_INDEX_COLUMNS_PRIMARY, PREFIX_INDEX_COLUMNS_SECONDARY,
+                    COLUMN_INDEX_RANK, COLUMN_INDEX_TITLE,
+                    PREFIX_INDEX_COLUMN_TITLE_NORMALIZED);
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, "Building prefix index for locale '" + localeStr + "' took " +
+                (System.currentTimeMillis() - current) + " millis");
+        return prefixIndex;
     }
 
-    private String buildSuggestionsSQL(String query) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("SELECT ");
-        sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
-        sb.append(" FROM ");
-        sb.append(Tables.TABLE_SAVED_QUERIES);
+    private List<String> getRecentSavedQueries() {
+        List<String> recentQueries = mRecentSavedQueries;
+        if (recentQueries != null) {
+            return recentQueries;
+        }
+        recentQueries = new ArrayList<String>();
+        final long recentTimeStamp = new Date().getTime() - Ranking.RECENT_QUERY_MAX_AGE_MS;
+        final Cursor cursor = getReadableDatabase().rawQuery(RECENT_SAVED_QUERIES_SQL,
+                new String[] { Long.toString(recentTimeStamp) });
+        try {
+            while (cursor.moveToNext()) {
+                final String query = cursor.getString(0);
+                if (!TextUtils.isEmpty(query)) {
+                    recentQueries.add(query.toLowerCase());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        mRecentSavedQueries = recentQueries;
+        return recentQueries;
+    }
 
+    public Cursor getSuggestions(String query) {
+        final long current = SystemClock.elapsedRealtime();
+        final SQLiteDatabase database = getReadableDatabase();
+        final Cursor cursor;
         if (TextUtils.isEmpty(query)) {
-            sb.append(" ORDER BY rowId DESC");
+            cursor = database.rawQuery(RECENT_SUGGESTIONS_SQL, null);
         } else {
-            sb.append(" WHERE ");
-            sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
-            sb.append(" LIKE ");
-            sb.append("'");
-            sb.append(query);
-            sb.append("%");
-            sb.append("'");
+            cursor = database.rawQuery(SUGGESTIONS_SQL,
+                    new String[] { escapeLikeString(query) + "%" });
         }
+        // Run the query now, on the calling thread, so that it is measured
+        cursor.getCount();
+        mMetrics.recordSuggestions(SystemClock.elapsedRealtime() - current);
+        return cursor;
+    }
 
-        sb.append(" LIMIT ");
-        sb.append(MAX_PROPOSED_SUGGESTIONS);
+    /**
+     * Dump the Index metrics, see {@link IndexMetrics}.
+     */
+    public void dump(String prefix, PrintWriter pw) {
+        pw.print(prefix); pw.print("Search Index available: "); pw.println(isAvailable());
+        mMetrics.dump(prefix, pw);
+    }
 
+    private static String escapeLikeString(String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        final int length = value.length();
+        for (int n = 0; n < length; n++) {
+            final char c = value.charAt(n);
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
         return sb.toString();
     }
 
-    public long addSavedQuery(String query){
-        final SaveSearchQueryTask task = new SaveSearchQueryTask();
-        task.execute(query);
-        try {
-            return task.get();
-        } catch (InterruptedException e) {
-            Log.e(LOG_TAG, "Cannot insert saved query: " + query, e);
-            return -1 ;
-        } catch (ExecutionException e) {
-            Log.e(LOG_TAG, "Cannot insert saved query: " + query, e);
-            return -1;
-        }
+    /**
+     * Save a search query for proposing it later as a suggestion. The query is written
+     * asynchronously: several queries saved in a short time are written together.
+     */
+    public void addSavedQuery(String query) {
+        addSavedQuery(query, null);
     }
 
-    public void update() {
-        final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
-        List<ResolveInfo> list =
-                mContext.getPackageManager().queryIntentContentProviders(intent, 0);
-
-        final int size = list.size();
-        for (int n = 0; n < size; n++) {
-            final ResolveInfo info = list.get(n);
-            if (!isWellKnownProvider(info)) {
-                continue;
+    /**
+     * Same as {@link #addSavedQuery(String)} with a callback called once the query is written.
+     */
+    public void addSavedQuery(String query, SaveQueryCallback callback) {
+        if (query == null) {
+            return;
+        }
+        synchronized (mPendingSavedQueries) {
+            // Only the latest save of the same query is kept
+            PendingSavedQuery pending = mPendingSavedQueries.remove(query);
+            final PendingSavedQuery latest = new PendingSavedQuery(query, new Date().getTime());
+            if (pending != null) {
+                latest.callbacks.addAll(pending.callbacks);
             }
-            final String authority = info.providerInfo.authority;
-            final String packageName = info.providerInfo.packageName;
+            if (callback != null) {
+                latest.callbacks.add(callback);
+            }
+            mPendingSavedQueries.put(query, latest);
 
-            addIndexablesFromRemoteProvider(packageName, authority);
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
+            if (mSavedQueriesHandler == null) {
+                final HandlerThread thread = new HandlerThread("Index.SavedQueries",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                mSavedQueriesHandler = new SavedQueriesHandler(thread.getLooper());
+            }
+            if (!mSavedQueriesHandler.hasMessages(MSG_WRITE_SAVED_QUERIES)) {
+                mSavedQueriesHandler.sendEmptyMessageDelayed(MSG_WRITE_SAVED_QUERIES,
+                        SAVED_QUERIES_WRITE_DELAY_MS);
+            }
         }
+    }
 
-        updateInternal();
+    /**
+     * Update the Index with the data of all the well known remote indexables providers. The
+     * providers are queried concurrently and the ones not answering in time are left behind.
+     */
+    public void update() {
+        new UpdateFromRemoteProvidersTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
-    private boolean addIndexablesFromRemoteProvider(String packageName, String authority) {
+    private void collectFromRemoteProvider(RemoteIndexables remote) {
+        remote.started = true;
+
+        final String packageName = remote.packageName;
+        final String authority = remote.authority;
+        final long current = SystemClock.elapsedRealtime();
         try {
+            // Non indexable keys come first as indexables cannot be used without them
+            remote.nonIndexableKeys = getNonIndexablesKeysFromRemoteProvider(packageName,
+                    authority);
+
             final int baseRank = Ranking.getBaseRankForAuthority(authority);
 
             final Context context = mBaseAuthority.equals(authority) ?
                     mContext : mContext.createPackageContext(packageName, 0);
 
+            final List<SearchIndexableData> xmlResources = new ArrayList<SearchIndexableData>();
             final Uri uriForResources = buildUriForXmlResources(authority);
             addIndexablesForXmlResourceUri(context, packageName, uriForResources,
-                    SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS, baseRank);
+                    SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS, baseRank, xmlResources);
+            remote.xmlResources = xmlResources;
 
+            final List<SearchIndexableData> rawData = new ArrayList<SearchIndexableData>();
             final Uri uriForRawData = buildUriForRawData(authority);
             addIndexablesForRawDataUri(context, packageName, uriForRawData,
-                    SearchIndexablesContract.INDEXABLES_RAW_COLUMNS, baseRank);
-            return true;
+                    SearchIndexablesContract.INDEXABLES_RAW_COLUMNS, baseRank, rawData);
+            remote.rawData = rawData;
         } catch (PackageManager.NameNotFoundException e) {
             Log.w(LOG_TAG, "Could not create context for " + packageName + ": "
                     + Log.getStackTraceString(e));
-            return false;
+        } finally {
+            mMetrics.recordProviderQuery(authority, SystemClock.elapsedRealtime() - current);
         }
     }
 
-    private void addNonIndexablesKeysFromRemoteProvider(String packageName,
-                                                        String authority) {
-        final List<String> keys =
-                getNonIndexablesKeysFromRemoteProvider(packageName, authority);
-        addNonIndexableKeys(packageName, keys);
-    }
-
     private List<String> getNonIndexablesKeysFromRemoteProvider(String packageName,
                                                                 String authority) {
         try {
@@ -362,6 +773,39 @@ public class Index {
         }
     }
 
+    private boolean isRemoteProviderBackedOff(String authority) {
+        synchronized (mProviderBackoffs) {
+            final ProviderBackoff backoff = mProviderBackoffs.get(authority);
+            return backoff != null && SystemClock.elapsedRealtime() < backoff.retryTime;
+        }
+    }
+
+    private void onRemoteProviderAnswered(String authority) {
+        synchronized (mProviderBackoffs) {
+            mProviderBackoffs.remove(authority);
+        }
+    }
+
+    private void onRemoteProviderTimedOut(String authority) {
+        mMetrics.recordProviderTimeout(authority);
+        synchronized (mProviderBackoffs) {
+            ProviderBackoff backoff = mProviderBackoffs.get(authority);
+            if (backoff == null) {
+                backoff = new ProviderBackoff();
+                mProviderBackoffs.put(authority, backoff);
+            }
+            backoff.timeouts++;
+            if (backoff.timeouts >= MAX_REMOTE_PROVIDER_TIMEOUTS) {
+                final int shift = Math.min(backoff.timeouts - MAX_REMOTE_PROVIDER_TIMEOUTS,
+                        MAX_REMOTE_PROVIDER_BACKOFF_SHIFT);
+                final long delay = REMOTE_PROVIDER_BACKOFF_MS << shift;
+                backoff.retryTime = SystemClock.elapsedRealtime() + delay;
+                Log.w(LOG_TAG, "Not querying indexables provider " + authority + " for "
+                        + delay + " millis after " + backoff.timeouts + " timeouts");
+            }
+        }
+    }
+
     private List<String> getNonIndexablesKeys(Context packageContext, Uri uri,
                                               String[] projection) {
 
@@ -394,6 +838,12 @@ public class Index {
         }
     }
 
+    private void addIndexableData(List<SearchIndexableData> list) {
+        synchronized (mDataToProcess) {
+            mDataToProcess.dataToUpdate.addAll(list);
+        }
+    }
+
     public void addIndexableData(SearchIndexableResource[] array) {
         synchronized (mDataToProcess) {
             final int count = array.length;
@@ -455,7 +905,11 @@ public class Index {
     }
 
     private void updateFromRemoteProvider(String packageName, String authority) {
-        if (addIndexablesFromRemoteProvider(packageName, authority)) {
+        final RemoteIndexables remote = new RemoteIndexables(packageName, authority);
+        collectFromRemoteProvider(remote);
+        if (remote.xmlResources != null && remote.rawData != null) {
+            addIndexableData(remote.xmlResources);
+            addIndexableData(remote.rawData);
             updateInternal();
         }
     }
@@ -495,6 +949,28 @@ public class Index {
         updateInternal();
     }
 
+    private static synchronized ThreadPoolExecutor getParserExecutor() {
+        if (sParserExecutor == null) {
+            final int threads = Math.max(1,
+                    Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARSER_THREADS));
+            sParserExecutor = new ThreadPoolExecutor(threads, threads,
+                    PARSER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            sParserExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sParserExecutor;
+    }
+
+    private static synchronized ThreadPoolExecutor getRemoteProviderExecutor() {
+        if (sRemoteProviderExecutor == null) {
+            sRemoteProviderExecutor = new ThreadPoolExecutor(MAX_REMOTE_PROVIDER_THREADS,
+                    MAX_REMOTE_PROVIDER_THREADS, PARSER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            sRemoteProviderExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sRemoteProviderExecutor;
+    }
+
     private SQLiteDatabase getReadableDatabase() {
         return IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
     }
@@ -540,7 +1016,7 @@ public class Index {
     }
 
     private void addIndexablesForXmlResourceUri(Context packageContext, String packageName,
-            Uri uri, String[] projection, int baseRank) {
+            Uri uri, String[] projection, int baseRank, List<SearchIndexableData> result) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
         final Cursor cursor = resolver.query(uri, projection, null, null, null);
@@ -578,7 +1054,7 @@ public class Index {
                     sir.intentTargetPackage = targetPackage;
                     sir.intentTargetClass = targetClass;
 
-                    addIndexableData(sir);
+                    result.add(sir);
                 }
             }
         } finally {
@@ -587,7 +1063,7 @@ public class Index {
     }
 
     private void addIndexablesForRawDataUri(Context packageContext, String packageName,
-            Uri uri, String[] projection, int baseRank) {
+            Uri uri, String[] projection, int baseRank, List<SearchIndexableData> result) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
         final Cursor cursor = resolver.query(uri, projection, null, null, null);
@@ -641,7 +1117,7 @@ public class Index {
                     data.key = key;
                     data.userId = userId;
 
-                    addIndexableData(data);
+                    result.add(data);
                 }
             }
         } finally {
@@ -649,50 +1125,103 @@ public class Index {
         }
     }
 
-    private String buildSearchSQL(String query, String[] colums, boolean withOrderBy) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(buildSearchSQLForColumn(query, colums));
-        if (withOrderBy) {
-            sb.append(" ORDER BY ");
-            sb.append(IndexColumns.DATA_RANK);
-        }
-        return sb.toString();
-    }
-
-    private String buildSearchSQLForColumn(String query, String[] columnNames) {
+    /**
+     * Build the search query returning both the primary and the secondary results in one pass,
+     * ordered by their score (see {@link Ranking#getScore}).
+     *
+     * Negate MATCH queries do not work, so the primary results are flagged with a sub-query on
+     * the primary columns instead. The number of hits is the number of FTS offsets, which come
+     * as 4 integers per matching term.
+     */
+    private static String buildSearchSQL() {
         StringBuilder sb = new StringBuilder();
-        sb.append("SELECT ");
+        sb.append("SELECT *, (");
+        sb.append(IndexColumns.DATA_RANK);
+        sb.append(" + ");
+        sb.append(MATCH_GROUP);
+        sb.append(" * ");
+        sb.append(Ranking.SCORE_SECONDARY_MATCH_PENALTY);
+        sb.append(" - ");
+        sb.append(TITLE_PREFIX);
+        sb.append(" * ");
+        sb.append(Ranking.SCORE_TITLE_PREFIX_BONUS);
+        sb.append(" - ");
+        sb.append(RECENT);
+        sb.append(" * ");
+        sb.append(Ranking.SCORE_RECENT_QUERY_BONUS);
+        sb.append(" - MIN(");
+        sb.append(HITS);
+        sb.append(", ");
+        sb.append(Ranking.SCORE_MAX_HITS);
+        sb.append(") * ");
+        sb.append(Ranking.SCORE_HIT_BONUS);
+        sb.append(") AS ");
+        sb.append(SCORE);
+        sb.append(" FROM (SELECT ");
         for (int n = 0; n < SELECT_COLUMNS.length; n++) {
             sb.append(SELECT_COLUMNS[n]);
-            if (n < SELECT_COLUMNS.length - 1) {
-                sb.append(", ");
-            }
+            sb.append(", ");
         }
+        // Match group
+        sb.append("CASE WHEN ");
+        sb.append(IndexColumns.DOCID);
+        sb.append(" IN (SELECT ");
+        sb.append(IndexColumns.DOCID);
         sb.append(" FROM ");
         sb.append(Tables.TABLE_PREFS_INDEX);
         sb.append(" WHERE ");
-        sb.append(buildSearchWhereStringForColumns(query, columnNames));
-
-        return sb.toString();
-    }
-
-    private String buildSearchWhereStringForColumns(String query, String[] columnNames) {
-        final StringBuilder sb = new StringBuilder(Tables.TABLE_PREFS_INDEX);
-        sb.append(" MATCH ");
-        DatabaseUtils.appendEscapedSQLString(sb,
-                buildSearchMatchStringForColumns(query, columnNames));
-        sb.append(" AND ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" MATCH ?) THEN ");
+        sb.append(MATCH_GROUP_PRIMARY);
+        sb.append(" ELSE ");
+        sb.append(MATCH_GROUP_SECONDARY);
+        sb.append(" END AS ");
+        sb.append(MATCH_GROUP);
+        // Title prefix
+        sb.append(", (");
+        sb.append(IndexColumns.DATA_TITLE);
+        sb.append(" LIKE ? ESCAPE '\\' OR ");
+        sb.append(IndexColumns.DATA_TITLE_NORMALIZED);
+        sb.append(" LIKE ? ESCAPE '\\') AS ");
+        sb.append(TITLE_PREFIX);
+        // Recently saved query
+        sb.append(", EXISTS (SELECT 1 FROM ");
+        sb.append(Tables.TABLE_SAVED_QUERIES);
+        sb.append(" WHERE ");
+        sb.append(IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP);
+        sb.append(" >= ? AND ");
+        sb.append(IndexColumns.DATA_TITLE_NORMALIZED);
+        // Saved queries are matched literally, see escapeLikeString()
+        sb.append(" LIKE (REPLACE(REPLACE(REPLACE(");
+        sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
+        sb.append(", '\\', '\\\\'), '%', '\\%'), '_', '\\_') || '%') ESCAPE '\\') AS ");
+        sb.append(RECENT);
+        // Hits
+        sb.append(", (LENGTH(offsets(");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(")) - LENGTH(REPLACE(offsets(");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append("), ' ', '')) + 1) / 4 AS ");
+        sb.append(HITS);
+        sb.append(" FROM ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" WHERE ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" MATCH ? AND ");
         sb.append(IndexColumns.LOCALE);
-        sb.append(" = ");
-        DatabaseUtils.appendEscapedSQLString(sb, Locale.getDefault().toString());
-        sb.append(" AND ");
+        sb.append(" = ? AND ");
         sb.append(IndexColumns.ENABLED);
-        sb.append(" = 1");
+        sb.append(" = 1)");
+        sb.append(" ORDER BY ");
+        sb.append(SCORE);
+        sb.append(", ");
+        sb.append(IndexColumns.DATA_RANK);
         return sb.toString();
     }
 
-    private String buildSearchMatchStringForColumns(String query, String[] columnNames) {
-        final String value = query + "*";
+    private static String buildSearchMatchStringForColumns(String query, String[] columnNames) {
+        // Double quotes are part of the MATCH syntax, so they cannot be part of a term
+        final String value = query.replace('"', ' ').trim() + "*";
         StringBuilder sb = new StringBuilder();
         final int count = columnNames.length;
         for (int n = 0; n < count; n++) {
@@ -706,23 +1235,14 @@ public class Index {
         return sb.toString();
     }
 
-    private void indexOneSearchIndexableData(SQLiteDatabase database, String localeStr,
-            SearchIndexableData data, Map<String, List<String>> nonIndexableKeys) {
-        if (data instanceof SearchIndexableResource) {
-            indexOneResource(database, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
-        } else if (data instanceof SearchIndexableRaw) {
-            indexOneRaw(database, localeStr, (SearchIndexableRaw) data);
-        }
-    }
-
-    private void indexOneRaw(SQLiteDatabase database, String localeStr,
+    private void indexOneRaw(List<IndexRow> rows, String localeStr,
                              SearchIndexableRaw raw) {
         // Should be the same locale as the one we are processing
         if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
             return;
         }
 
-        updateOneRowWithFilteredData(database, localeStr,
+        updateOneRowWithFilteredData(rows, localeStr,
                 raw.title,
                 raw.summaryOn,
                 raw.summaryOff,
@@ -755,26 +1275,22 @@ public class Index {
         return isIndexableClass(clazz) ? clazz : null;
     }
 
-    private void indexOneResource(SQLiteDatabase database, String localeStr,
-            SearchIndexableResource sir, Map<String, List<String>> nonIndexableKeysFromResource) {
+    /**
+     * Resolve what a resource has to index: the raw data of its provider is added to the rows,
+     * and the xml resources left to parse are added to xmlResources. Providers are not thread
+     * safe, so this runs on the indexing thread and only the parsing is left to the pool (see
+     * {@link #indexFromResources}).
+     */
+    private void indexOneResource(List<IndexRow> rows, List<SearchIndexableResource> xmlResources,
+            String localeStr, SearchIndexableResource sir, List<String> nonIndexableKeys) {
 
         if (sir == null) {
             Log.e(LOG_TAG, "Cannot index a null resource!");
             return;
         }
 
-        final List<String> nonIndexableKeys = new ArrayList<String>();
-
         if (sir.xmlResId > SearchIndexableResources.NO_DATA_RES_ID) {
-            List<String> resNonIndxableKeys = nonIndexableKeysFromResource.get(sir.packageName);
-            if (resNonIndxableKeys != null && resNonIndxableKeys.size() > 0) {
-                nonIndexableKeys.addAll(resNonIndxableKeys);
-            }
-
-            indexFromResource(sir.context, database, localeStr,
-                    sir.xmlResId, sir.className, sir.iconResId, sir.rank,
-                    sir.intentAction, sir.intentTargetPackage, sir.intentTargetClass,
-                    nonIndexableKeys);
+            xmlResources.add(sir);
         } else {
             if (TextUtils.isEmpty(sir.className)) {
                 Log.w(LOG_TAG, "Cannot index an empty Search Provider name!");
@@ -791,16 +1307,123 @@ public class Index {
             // Will be non null only for a Local provider implementing a
             // SEARCH_INDEX_DATA_PROVIDER field
             final Indexable.SearchIndexProvider provider = getSearchIndexProvider(clazz);
+            if (provider != null) {
+                indexFromProvider(mContext, rows, xmlResources, localeStr, provider,
+                        sir.className, sir.iconResId, sir.rank, sir.enabled, nonIndexableKeys);
+            }
+        }
+    }
+
+    private void indexFromResources(List<IndexRow> rows, String localeStr,
+            List<SearchIndexableResource> xmlResources, List<String> nonIndexableKeys) {
+        final int count = xmlResources.size();
+        for (int n = 0; n < count; n++) {
+            final SearchIndexableResource sir = xmlResources.get(n);
+            indexFromResource(sir.context, rows, localeStr,
+                    sir.xmlResId, sir.className, sir.iconResId, sir.rank,
+                    sir.intentAction, sir.intentTargetPackage, sir.intentTargetClass,
+                    nonIndexableKeys);
+        }
+    }
+
+    private List<String> getNonIndexableKeys(SearchIndexableResource sir,
+            Map<String, List<String>> nonIndexableKeysFromResource) {
+        final List<String> nonIndexableKeys = new ArrayList<String>();
+
+        if (sir.xmlResId > SearchIndexableResources.NO_DATA_RES_ID) {
+            List<String> resNonIndxableKeys = nonIndexableKeysFromResource.get(sir.packageName);
+            if (resNonIndxableKeys != null && resNonIndxableKeys.size() > 0) {
+                nonIndexableKeys.addAll(resNonIndxableKeys);
+            }
+        } else if (!TextUtils.isEmpty(sir.className)) {
+            final Class<?> clazz = getIndexableClass(sir.className);
+            final Indexable.SearchIndexProvider provider = clazz != null
+                    ? getSearchIndexProvider(clazz) : null;
             if (provider != null) {
                 List<String> providerNonIndexableKeys = provider.getNonIndexableKeys(sir.context);
                 if (providerNonIndexableKeys != null && providerNonIndexableKeys.size() > 0) {
                     nonIndexableKeys.addAll(providerNonIndexableKeys);
                 }
+            }
+        }
+        return nonIndexableKeys;
+    }
+
+    private String getPackageName(SearchIndexableResource sir) {
+        // Resources of Settings may come without their package name
+        return TextUtils.isEmpty(sir.packageName) ? mContext.getPackageName() : sir.packageName;
+    }
+
+    private static String getIndexableKey(SearchIndexableResource sir, String packageName) {
+        // A provider may return several resources for the same class
+        return (TextUtils.isEmpty(sir.className) ? packageName : sir.className)
+                + ":" + sir.xmlResId;
+    }
 
-                indexFromProvider(mContext, database, localeStr, provider, sir.className,
-                        sir.iconResId, sir.rank, sir.enabled, nonIndexableKeys);
+    private IndexFingerprint getFingerprint(SearchIndexableResource sir,
+            Map<String, List<String>> nonIndexableKeysFromResource,
+            Map<String, Integer> packageVersions) {
+        final String packageName = getPackageName(sir);
+        final String indexableKey = getIndexableKey(sir, packageName);
+        final int packageVersion = getPackageVersion(packageName, packageVersions);
+
+        // The enabled bit is not part of it, as it is only set by the forced updates
+        final int providerHash = Arrays.hashCode(new Object[] {
+                sir.className, packageName, sir.iconResId, sir.rank,
+                sir.intentAction, sir.intentTargetPackage, sir.intentTargetClass });
+
+        // The order of the keys does not matter
+        final List<String> nonIndexableKeys =
+                getNonIndexableKeys(sir, nonIndexableKeysFromResource);
+        final List<String> sortedKeys = new ArrayList<String>(nonIndexableKeys);
+        Collections.sort(sortedKeys);
+
+        final IndexFingerprint fingerprint = new IndexFingerprint(indexableKey, sir.xmlResId,
+                packageVersion, providerHash, sortedKeys.hashCode());
+        fingerprint.nonIndexableKeys = nonIndexableKeys;
+        return fingerprint;
+    }
+
+    /**
+     * @return true if some of the given resources have not been indexed yet, or have been
+     *         indexed from another version of their package.
+     */
+    private boolean havePackagesChanged(List<SearchIndexableData> dataToUpdate,
+            Map<String, IndexFingerprint> indexedFingerprints,
+            Map<String, Integer> packageVersions) {
+        final int count = dataToUpdate.size();
+        for (int n = 0; n < count; n++) {
+            final SearchIndexableData data = dataToUpdate.get(n);
+            if (!(data instanceof SearchIndexableResource)) {
+                continue;
+            }
+            final SearchIndexableResource sir = (SearchIndexableResource) data;
+            final String packageName = getPackageName(sir);
+            final IndexFingerprint indexed =
+                    indexedFingerprints.get(getIndexableKey(sir, packageName));
+            if (indexed == null
+                    || indexed.packageVersion != getPackageVersion(packageName, packageVersions)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private int getPackageVersion(String packageName, Map<String, Integer> packageVersions) {
+        Integer packageVersion = packageVersions.get(packageName);
+        if (packageVersion == null) {
+            packageVersion = getPackageVersion(packageName);
+            packageVersions.put(packageName, packageVersion);
+        }
+        return packageVersion;
+    }
+
+    private int getPackageVersion(String packageName) {
+        try {
+            return mContext.getPackageManager().getPackageInfo(packageName, 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
     }
 
     private Indexable.SearchIndexProvider getSearchIndexProvider(final Class<?> clazz) {
@@ -823,7 +1446,7 @@ public class Index {
         return null;
     }
 
-    private void indexFromResource(Context context, SQLiteDatabase database, String localeStr,
+    private void indexFromResource(Context context, List<IndexRow> rows, String localeStr,
            int xmlResId, String fragmentName, int iconResId, int rank,
            String intentAction, String intentTargetPackage, String intentTargetClass,
            List<String> nonIndexableKeys) {
@@ -863,7 +1486,7 @@ public class Index {
                 summary = getDataSummary(context, attrs);
                 keywords = getDataKeywords(context, attrs);
 
-                updateOneRowWithFilteredData(database, localeStr, title, summary, null, null,
+                updateOneRowWithFilteredData(rows, localeStr, title, summary, null, null,
                         fragmentName, screenTitle, iconResId, rank,
                         keywords, intentAction, intentTargetPackage, intentTargetClass, true,
                         key, -1 /* default user id */);
@@ -895,7 +1518,7 @@ public class Index {
                     }
 
                     // Insert rows for the child nodes of PreferenceScreen
-                    updateOneRowWithFilteredData(database, localeStr, title, summary, null, entries,
+                    updateOneRowWithFilteredData(rows, localeStr, title, summary, null, entries,
                             fragmentName, screenTitle, iconResId, rank,
                             keywords, intentAction, intentTargetPackage, intentTargetClass,
                             true, key, -1 /* default user id */);
@@ -907,7 +1530,7 @@ public class Index {
                         summaryOn = getDataSummary(context, attrs);
                     }
 
-                    updateOneRowWithFilteredData(database, localeStr, title, summaryOn, summaryOff,
+                    updateOneRowWithFilteredData(rows, localeStr, title, summaryOn, summaryOff,
                             null, fragmentName, screenTitle, iconResId, rank,
                             keywords, intentAction, intentTargetPackage, intentTargetClass,
                             true, key, -1 /* default user id */);
@@ -923,7 +1546,8 @@ public class Index {
         }
     }
 
-    private void indexFromProvider(Context context, SQLiteDatabase database, String localeStr,
+    private void indexFromProvider(Context context, List<IndexRow> rows,
+            List<SearchIndexableResource> xmlResources, String localeStr,
             Indexable.SearchIndexProvider provider, String className, int iconResId, int rank,
             boolean enabled, List<String> nonIndexableKeys) {
 
@@ -948,7 +1572,7 @@ public class Index {
                     continue;
                 }
 
-                updateOneRowWithFilteredData(database, localeStr,
+                updateOneRowWithFilteredData(rows, localeStr,
                         raw.title,
                         raw.summaryOn,
                         raw.summaryOff,
@@ -984,15 +1608,18 @@ public class Index {
                 String itemClassName = (TextUtils.isEmpty(item.className))
                         ? className : item.className;
 
-                indexFromResource(context, database, localeStr,
-                        item.xmlResId, itemClassName, itemIconResId, itemRank,
-                        item.intentAction, item.intentTargetPackage,
-                        item.intentTargetClass, nonIndexableKeys);
+                final SearchIndexableResource resolved = new SearchIndexableResource(
+                        itemRank, item.xmlResId, itemClassName, itemIconResId);
+                resolved.context = context;
+                resolved.intentAction = item.intentAction;
+                resolved.intentTargetPackage = item.intentTargetPackage;
+                resolved.intentTargetClass = item.intentTargetClass;
+                xmlResources.add(resolved);
             }
         }
     }
 
-    private void updateOneRowWithFilteredData(SQLiteDatabase database, String locale,
+    private void updateOneRowWithFilteredData(List<IndexRow> rows, String locale,
             String title, String summaryOn, String summaryOff, String entries,
             String className,
             String screenTitle, int iconResId, int rank, String keywords,
@@ -1007,7 +1634,7 @@ public class Index {
         final String normalizedSummaryOn = normalizeString(updatedSummaryOn);
         final String normalizedSummaryOff = normalizeString(updatedSummaryOff);
 
-        updateOneRow(database, locale,
+        updateOneRow(rows, locale,
                 updatedTitle, normalizedTitle, updatedSummaryOn, normalizedSummaryOn,
                 updatedSummaryOff, normalizedSummaryOff, entries,
                 className, screenTitle, iconResId,
@@ -1026,7 +1653,7 @@ public class Index {
         return REMOVE_DIACRITICALS_PATTERN.matcher(normalized).replaceAll("").toLowerCase();
     }
 
-    private void updateOneRow(SQLiteDatabase database, String locale,
+    private void updateOneRow(List<IndexRow> rows, String locale,
             String updatedTitle, String normalizedTitle,
             String updatedSummaryOn, String normalizedSummaryOn,
             String updatedSummaryOff, String normalizedSummaryOff, String entries,
@@ -1044,29 +1671,29 @@ public class Index {
         sb.append(screenTitle);
         int docId = sb.toString().hashCode();
 
-        ContentValues values = new ContentValues();
-        values.put(IndexColumns.DOCID, docId);
-        values.put(IndexColumns.LOCALE, locale);
-        values.put(IndexColumns.DATA_RANK, rank);
-        values.put(IndexColumns.DATA_TITLE, updatedTitle);
-        values.put(IndexColumns.DATA_TITLE_NORMALIZED, normalizedTitle);
-        values.put(IndexColumns.DATA_SUMMARY_ON, updatedSummaryOn);
-        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED, normalizedSummaryOn);
-        values.put(IndexColumns.DATA_SUMMARY_OFF, updatedSummaryOff);
-        values.put(IndexColumns.DATA_SUMMARY_OFF_NORMALIZED, normalizedSummaryOff);
-        values.put(IndexColumns.DATA_ENTRIES, entries);
-        values.put(IndexColumns.DATA_KEYWORDS, keywords);
-        values.put(IndexColumns.CLASS_NAME, className);
-        values.put(IndexColumns.SCREEN_TITLE, screenTitle);
-        values.put(IndexColumns.INTENT_ACTION, intentAction);
-        values.put(IndexColumns.INTENT_TARGET_PACKAGE, intentTargetPackage);
-        values.put(IndexColumns.INTENT_TARGET_CLASS, intentTargetClass);
-        values.put(IndexColumns.ICON, iconResId);
-        values.put(IndexColumns.ENABLED, enabled);
-        values.put(IndexColumns.DATA_KEY_REF, key);
-        values.put(IndexColumns.USER_ID, userId);
-
-        database.replaceOrThrow(Tables.TABLE_PREFS_INDEX, null, values);
+        IndexRow row = new IndexRow();
+        row.docId = docId;
+        row.locale = locale;
+        row.rank = rank;
+        row.title = updatedTitle;
+        row.normalizedTitle = normalizedTitle;
+        row.summaryOn = updatedSummaryOn;
+        row.normalizedSummaryOn = normalizedSummaryOn;
+        row.summaryOff = updatedSummaryOff;
+        row.normalizedSummaryOff = normalizedSummaryOff;
+        row.entries = entries;
+        row.keywords = keywords;
+        row.className = className;
+        row.screenTitle = screenTitle;
+        row.intentAction = intentAction;
+        row.intentTargetPackage = intentTargetPackage;
+        row.intentTargetClass = intentTargetClass;
+        row.iconResId = iconResId;
+        row.enabled = enabled;
+        row.key = key;
+        row.userId = userId;
+
+        rows.add(row);
     }
 
     private String getDataKey(Context context, AttributeSet attrs) {
@@ -1157,11 +1784,115 @@ public class Index {
         }
    }
 
+    /**
+     * A private class for collecting the data of the remote indexables providers before updating
+     * the Index with it. Providers are queried concurrently and are given a common deadline:
+     * whatever a late provider has already answered is still used.
+     */
+    private class UpdateFromRemoteProvidersTask
+            extends AsyncTask<Void, Void, List<RemoteIndexables>> {
+
+        @Override
+        protected List<RemoteIndexables> doInBackground(Void... params) {
+            final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
+            List<ResolveInfo> list =
+                    mContext.getPackageManager().queryIntentContentProviders(intent, 0);
+
+            final ThreadPoolExecutor executor = getRemoteProviderExecutor();
+            final List<RemoteIndexables> result = new ArrayList<RemoteIndexables>();
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+            // Binder calls cannot be interrupted, so the threads of the providers that never
+            // answered may still be blocked: do not queue more work behind them
+            if (executor.getActiveCount() >= MAX_REMOTE_PROVIDER_THREADS) {
+                Log.w(LOG_TAG, "All indexables provider threads are blocked, skipping update");
+                return result;
+            }
+
+            final int size = list.size();
+            for (int n = 0; n < size; n++) {
+                final ResolveInfo info = list.get(n);
+                if (!isWellKnownProvider(info)) {
+                    continue;
+                }
+                final String authority = info.providerInfo.authority;
+                final String packageName = info.providerInfo.packageName;
+
+                if (isRemoteProviderBackedOff(authority)) {
+                    Log.d(LOG_TAG, "Skipping backed off indexables provider: " + authority);
+                    continue;
+                }
+
+                final RemoteIndexables remote = new RemoteIndexables(packageName, authority);
+                result.add(remote);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        collectFromRemoteProvider(remote);
+                    }
+                }));
+            }
+
+            final long deadline = SystemClock.elapsedRealtime() + REMOTE_PROVIDER_TIMEOUT_MS;
+            final int count = result.size();
+            for (int n = 0; n < count; n++) {
+                final RemoteIndexables remote = result.get(n);
+                final Future<?> future = futures.get(n);
+                try {
+                    final long timeout = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                    future.get(timeout, TimeUnit.MILLISECONDS);
+                    onRemoteProviderAnswered(remote.authority);
+                } catch (TimeoutException e) {
+                    // Only drops a query not started yet, a running one cannot be stopped. The
+                    // provider backs off either way, so that fewer queries are queued behind the
+                    // threads blocked by unresponsive providers.
+                    future.cancel(false);
+                    Log.w(LOG_TAG, "Indexables provider timed out: " + remote.authority
+                            + (remote.started ? "" : " (not started)"));
+                    onRemoteProviderTimedOut(remote.authority);
+                } catch (InterruptedException e) {
+                    Log.w(LOG_TAG, "Interrupted while querying " + remote.authority, e);
+                } catch (ExecutionException e) {
+                    Log.w(LOG_TAG, "Cannot query indexables provider " + remote.authority, e);
+                }
+            }
+            executor.purge();
+            return result;
+        }
+
+        @Override
+        protected void onPostExecute(List<RemoteIndexables> result) {
+            final int count = result.size();
+            for (int n = 0; n < count; n++) {
+                final RemoteIndexables remote = result.get(n);
+                final List<String> nonIndexableKeys = remote.nonIndexableKeys;
+                if (nonIndexableKeys == null) {
+                    continue;
+                }
+                addNonIndexableKeys(remote.packageName, nonIndexableKeys);
+
+                final List<SearchIndexableData> xmlResources = remote.xmlResources;
+                if (xmlResources != null) {
+                    addIndexableData(xmlResources);
+                }
+                final List<SearchIndexableData> rawData = remote.rawData;
+                if (rawData != null) {
+                    addIndexableData(rawData);
+                }
+            }
+            updateInternal();
+        }
+    }
+
     /**
      * A private class for updating the Index database
      */
     private class UpdateIndexTask extends AsyncTask<UpdateData, Integer, Void> {
 
+        private int mRowsInserted;
+        private int mRowsDeleted;
+        private int mResourcesSkipped;
+
         @Override
         protected void onPreExecute() {
             super.onPreExecute();
@@ -1185,6 +1916,7 @@ public class Index {
             final SQLiteDatabase database = getWritableDatabase();
             final String localeStr = Locale.getDefault().toString();
 
+            final long current = SystemClock.elapsedRealtime();
             try {
                 database.beginTransaction();
                 if (dataToDelete.size() > 0) {
@@ -1197,37 +1929,197 @@ public class Index {
                 database.setTransactionSuccessful();
             } finally {
                 database.endTransaction();
+                updatePrefixIndex(database, localeStr);
+                mMetrics.recordTransaction(SystemClock.elapsedRealtime() - current,
+                        mRowsInserted, mRowsDeleted, mResourcesSkipped);
             }
 
             return null;
         }
 
-        private boolean processDataToUpdate(SQLiteDatabase database, String localeStr,
+        /**
+         * Rebuilds the PrefixIndex on this thread once the transaction is over, so that queries
+         * never have to. It is only rebuilt if the Index has changed or if it has not been built
+         * for the current locale yet, and it is swapped in at once when complete.
+         */
+        private void updatePrefixIndex(SQLiteDatabase database, String localeStr) {
+            if (mRowsInserted == 0 && mRowsDeleted == 0 && getPrefixIndex(localeStr) != null) {
+                return;
+            }
+            try {
+                mPrefixIndex = buildPrefixIndex(database, localeStr);
+            } catch (SQLiteException e) {
+                Log.e(LOG_TAG, "Cannot build prefix index for locale '" + localeStr + "'", e);
+                mPrefixIndex = null;
+            }
+        }
+
+        private boolean processDataToUpdate(SQLiteDatabase database, final String localeStr,
                 List<SearchIndexableData> dataToUpdate, Map<String, List<String>> nonIndexableKeys,
                 boolean forceUpdate) {
 
-            if (!forceUpdate && isLocaleAlreadyIndexed(database, localeStr)) {
+            final boolean isLocaleIndexed = isLocaleAlreadyIndexed(database, localeStr);
+            final Map<String, IndexFingerprint> indexedFingerprints;
+            if (isLocaleIndexed) {
+                indexedFingerprints = getIndexedFingerprints(database, localeStr);
+            } else {
+                deleteFingerprints(database, FingerprintColumns.LOCALE, localeStr);
+                indexedFingerprints = Collections.emptyMap();
+            }
+
+            // Nothing can have changed if no package has been updated since the last update:
+            // skip computing the fingerprints, which needs the non indexable keys
+            final int count = dataToUpdate.size();
+            final Map<String, Integer> packageVersions = new HashMap<String, Integer>();
+            if (isLocaleIndexed && !forceUpdate
+                    && !havePackagesChanged(dataToUpdate, indexedFingerprints, packageVersions)) {
                 Log.d(LOG_TAG, "Locale '" + localeStr + "' is already indexed");
+                mResourcesSkipped += count;
                 return true;
             }
 
             boolean result = false;
             final long current = System.currentTimeMillis();
 
-            final int count = dataToUpdate.size();
+            // First, find out which resources have changed since they have been indexed. The
+            // rows of a forced update are only changed by forced updates.
+            final IndexFingerprint[] fingerprints = new IndexFingerprint[count];
+            final Set<String> changedKeys = new HashSet<String>();
             for (int n = 0; n < count; n++) {
                 final SearchIndexableData data = dataToUpdate.get(n);
+                if (!(data instanceof SearchIndexableResource)) {
+                    continue;
+                }
+                final SearchIndexableResource sir = (SearchIndexableResource) data;
                 try {
-                    indexOneSearchIndexableData(database, localeStr, data, nonIndexableKeys);
+                    final IndexFingerprint fingerprint =
+                            getFingerprint(sir, nonIndexableKeys, packageVersions);
+                    fingerprint.forced = forceUpdate;
+                    fingerprints[n] = fingerprint;
+                    final IndexFingerprint indexed =
+                            indexedFingerprints.get(fingerprint.indexableKey);
+                    if (!fingerprint.equals(indexed)
+                            && (forceUpdate || indexed == null || !indexed.forced)) {
+                        changedKeys.add(fingerprint.indexableKey);
+                    }
                 } catch (Exception e) {
-                    Log.e(LOG_TAG,
-                            "Cannot index: " + data.className + " for locale: " + localeStr, e);
+                    Log.e(LOG_TAG, "Cannot compute fingerprint for: " + sir.className, e);
+                }
+            }
+
+            // Second, remove the stale rows of the changed resources. Forced updates are taking
+            // care of their own deletions.
+            if (isLocaleIndexed && !forceUpdate) {
+                for (String indexableKey : changedKeys) {
+                    mRowsDeleted += delete(database, localeStr, IndexColumns.INDEXABLE_KEY,
+                            indexableKey);
                 }
             }
 
+            // Then, parse in parallel only what has changed
+            int skipped = 0;
+            final ThreadPoolExecutor executor = getParserExecutor();
+            final List<Future<List<IndexRow>>> parsedRows =
+                    new ArrayList<Future<List<IndexRow>>>(count);
+            for (int n = 0; n < count; n++) {
+                final SearchIndexableData data = dataToUpdate.get(n);
+                final IndexFingerprint fingerprint = fingerprints[n];
+                if (data instanceof SearchIndexableResource) {
+                    final SearchIndexableResource sir = (SearchIndexableResource) data;
+                    if (fingerprint == null) {
+                        parsedRows.add(null);
+                        continue;
+                    }
+                    if (!forceUpdate && !changedKeys.contains(fingerprint.indexableKey)) {
+                        skipped++;
+                        parsedRows.add(null);
+                        continue;
+                    }
+                    // Providers are queried here, only the xml parsing is done in parallel
+                    final long resolveStart = SystemClock.elapsedRealtime();
+                    final List<IndexRow> providerRows = new ArrayList<IndexRow>();
+                    final List<SearchIndexableResource> xmlResources =
+                            new ArrayList<SearchIndexableResource>();
+                    try {
+                        indexOneResource(providerRows, xmlResources, localeStr, sir,
+                                fingerprint.nonIndexableKeys);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG,
+                                "Cannot index: " + sir.className + " for locale: " + localeStr, e);
+                        parsedRows.add(null);
+                        continue;
+                    }
+                    final long resolveTime = SystemClock.elapsedRealtime() - resolveStart;
+                    parsedRows.add(executor.submit(new Callable<List<IndexRow>>() {
+                        @Override
+                        public List<IndexRow> call() {
+                            final long start = SystemClock.elapsedRealtime();
+                            final List<IndexRow> rows = providerRows;
+                            indexFromResources(rows, localeStr, xmlResources,
+                                    fingerprint.nonIndexableKeys);
+                            for (int i = 0; i < rows.size(); i++) {
+                                rows.get(i).indexableKey = fingerprint.indexableKey;
+                            }
+                            mMetrics.recordParse(fingerprint.indexableKey,
+                                    resolveTime + SystemClock.elapsedRealtime() - start);
+                            return rows;
+                        }
+                    }));
+                } else if (data instanceof SearchIndexableRaw) {
+                    if (!forceUpdate && isLocaleIndexed) {
+                        skipped++;
+                        parsedRows.add(null);
+                        continue;
+                    }
+                    final SearchIndexableRaw raw = (SearchIndexableRaw) data;
+                    parsedRows.add(executor.submit(new Callable<List<IndexRow>>() {
+                        @Override
+                        public List<IndexRow> call() {
+                            final List<IndexRow> rows = new ArrayList<IndexRow>(1);
+                            indexOneRaw(rows, localeStr, raw);
+                            return rows;
+                        }
+                    }));
+                } else {
+                    parsedRows.add(null);
+                }
+            }
+
+            // Last, write the parsed rows in order with a single compiled statement
+            final SQLiteStatement insert = database.compileStatement(INSERT_INDEX_ROW_SQL);
+            try {
+                for (int n = 0; n < count; n++) {
+                    final Future<List<IndexRow>> future = parsedRows.get(n);
+                    if (future == null) {
+                        continue;
+                    }
+                    final SearchIndexableData data = dataToUpdate.get(n);
+                    try {
+                        final List<IndexRow> rows = future.get();
+                        final int rowCount = rows.size();
+                        for (int i = 0; i < rowCount; i++) {
+                            rows.get(i).bindTo(insert);
+                            insert.executeInsert();
+                        }
+                        mRowsInserted += rowCount;
+                        if (fingerprints[n] != null) {
+                            saveFingerprint(database, localeStr, fingerprints[n]);
+                        }
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG,
+                                "Cannot index: " + data.className + " for locale: " + localeStr, e);
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+
+            mResourcesSkipped += skipped;
+
             final long now = System.currentTimeMillis();
             Log.d(LOG_TAG, "Indexing locale '" + localeStr + "' took " +
-                    (now - current) + " millis");
+                    (now - current) + " millis (" + skipped + " of " + count +
+                    " unchanged)");
             return result;
         }
 
@@ -1244,12 +2136,13 @@ public class Index {
                     continue;
                 }
                 if (!TextUtils.isEmpty(data.className)) {
-                    delete(database, IndexColumns.CLASS_NAME, data.className);
+                    mRowsDeleted += delete(database, IndexColumns.CLASS_NAME, data.className);
+                    deleteFingerprintsOfClass(database, data.className);
                 } else  {
                     if (data instanceof SearchIndexableRaw) {
                         final SearchIndexableRaw raw = (SearchIndexableRaw) data;
                         if (!TextUtils.isEmpty(raw.title)) {
-                            delete(database, IndexColumns.DATA_TITLE, raw.title);
+                            mRowsDeleted += delete(database, IndexColumns.DATA_TITLE, raw.title);
                         }
                     }
                 }
@@ -1268,6 +2161,77 @@ public class Index {
             return database.delete(Tables.TABLE_PREFS_INDEX, whereClause, whereArgs);
         }
 
+        private int delete(SQLiteDatabase database, String localeStr, String columName,
+                String value) {
+            final String whereClause = columName + "=? AND " + IndexColumns.LOCALE + "=?";
+            final String[] whereArgs = new String[] { value, localeStr };
+
+            return database.delete(Tables.TABLE_PREFS_INDEX, whereClause, whereArgs);
+        }
+
+        private Map<String, IndexFingerprint> getIndexedFingerprints(SQLiteDatabase database,
+                String localeStr) {
+            final Map<String, IndexFingerprint> result = new HashMap<String, IndexFingerprint>();
+            final Cursor cursor = database.query(Tables.TABLE_INDEX_FINGERPRINTS,
+                    new String[] {
+                            FingerprintColumns.INDEXABLE_KEY,
+                            FingerprintColumns.XML_RES_ID,
+                            FingerprintColumns.PACKAGE_VERSION,
+                            FingerprintColumns.PROVIDER_HASH,
+                            FingerprintColumns.NON_INDEXABLE_KEYS_HASH,
+                            FingerprintColumns.FORCED
+                    },
+                    FingerprintColumns.LOCALE + "=?", new String[] { localeStr },
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    final IndexFingerprint fingerprint = new IndexFingerprint(
+                            cursor.getString(0), cursor.getInt(1), cursor.getInt(2),
+                            cursor.getInt(3), cursor.getInt(4));
+                    fingerprint.forced = cursor.getInt(5) != 0;
+                    result.put(fingerprint.indexableKey, fingerprint);
+                }
+            } finally {
+                cursor.close();
+            }
+            return result;
+        }
+
+        private void saveFingerprint(SQLiteDatabase database, String localeStr,
+                IndexFingerprint fingerprint) {
+            final ContentValues values = new ContentValues();
+            values.put(FingerprintColumns.LOCALE, localeStr);
+            values.put(FingerprintColumns.INDEXABLE_KEY, fingerprint.indexableKey);
+            values.put(FingerprintColumns.XML_RES_ID, fingerprint.xmlResId);
+            values.put(FingerprintColumns.PACKAGE_VERSION, fingerprint.packageVersion);
+            values.put(FingerprintColumns.PROVIDER_HASH, fingerprint.providerHash);
+            values.put(FingerprintColumns.NON_INDEXABLE_KEYS_HASH,
+                    fingerprint.nonIndexableKeysHash);
+            values.put(FingerprintColumns.FORCED, fingerprint.forced);
+
+            database.replaceOrThrow(Tables.TABLE_INDEX_FINGERPRINTS, null, values);
+        }
+
+        private int deleteFingerprints(SQLiteDatabase database, String columName, String value) {
+            final String whereClause = columName + "=?";
+            final String[] whereArgs = new String[] { value };
+
+            return database.delete(Tables.TABLE_INDEX_FINGERPRINTS, whereClause, whereArgs);
+        }
+
+        /**
+         * Delete the fingerprints of all the resources of a class, which are keyed by the class
+         * name followed by ':' and the resource id.
+         */
+        private int deleteFingerprintsOfClass(SQLiteDatabase database, String className) {
+            // ';' is the character following ':'
+            final String whereClause = FingerprintColumns.INDEXABLE_KEY + ">=? AND "
+                    + FingerprintColumns.INDEXABLE_KEY + "<?";
+            final String[] whereArgs = new String[] { className + ":", className + ";" };
+
+            return database.delete(Tables.TABLE_INDEX_FINGERPRINTS, whereClause, whereArgs);
+        }
+
         private boolean isLocaleAlreadyIndexed(SQLiteDatabase database, String locale) {
             Cursor cursor = null;
             boolean result = false;
@@ -1290,43 +2254,86 @@ public class Index {
     }
 
     /**
-     * A basic AsyncTask for saving a Search query into the database
+     * A Handler for writing the pending saved search queries into the database
      */
-    private class SaveSearchQueryTask extends AsyncTask<String, Void, Long> {
+    private class SavedQueriesHandler extends Handler {
+
+        public SavedQueriesHandler(Looper looper) {
+            super(looper);
+        }
 
         @Override
-        protected Long doInBackground(String... params) {
-            final long now = new Date().getTime();
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_WRITE_SAVED_QUERIES: {
+                    final List<PendingSavedQuery> queries;
+                    synchronized (mPendingSavedQueries) {
+                        queries = new ArrayList<PendingSavedQuery>(mPendingSavedQueries.values());
+                        mPendingSavedQueries.clear();
+                    }
+                    writeSavedQueries(queries);
+                } break;
+            }
+        }
 
-            final ContentValues values = new ContentValues();
-            values.put(IndexDatabaseHelper.SavedQueriesColums.QUERY, params[0]);
-            values.put(IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP, now);
+        private void writeSavedQueries(final List<PendingSavedQuery> queries) {
+            final int count = queries.size();
+            final long[] rowIds = new long[count];
+            Arrays.fill(rowIds, -1);
 
             final SQLiteDatabase database = getWritableDatabase();
-
-            long lastInsertedRowId = -1;
             try {
-                // First, delete all saved queries that are the same
-                database.delete(Tables.TABLE_SAVED_QUERIES,
-                        IndexDatabaseHelper.SavedQueriesColums.QUERY + " = ?",
-                        new String[] { params[0] });
-
-                // Second, insert the saved query
-                lastInsertedRowId =
-                        database.insertOrThrow(Tables.TABLE_SAVED_QUERIES, null, values);
-
-                // Last, remove "old" saved queries
-                final long delta = lastInsertedRowId - MAX_SAVED_SEARCH_QUERY;
-                if (delta > 0) {
-                    int count = database.delete(Tables.TABLE_SAVED_QUERIES, "rowId <= ?",
-                            new String[] { Long.toString(delta) });
-                    Log.d(LOG_TAG, "Deleted '" + count + "' saved Search query(ies)");
+                database.beginTransaction();
+                try {
+                    long lastInsertedRowId = -1;
+                    for (int n = 0; n < count; n++) {
+                        final PendingSavedQuery pending = queries.get(n);
+
+                        final ContentValues values = new ContentValues();
+                        values.put(IndexDatabaseHelper.SavedQueriesColums.QUERY, pending.query);
+                        values.put(IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP,
+                                pending.timeStamp);
+
+                        // First, delete all saved queries that are the same
+                        database.delete(Tables.TABLE_SAVED_QUERIES,
+                                IndexDatabaseHelper.SavedQueriesColums.QUERY + " = ?",
+                                new String[] { pending.query });
+
+                        // Second, insert the saved query
+                        lastInsertedRowId =
+                                database.insertOrThrow(Tables.TABLE_SAVED_QUERIES, null, values);
+                        rowIds[n] = lastInsertedRowId;
+                    }
+
+                    // Last, remove "old" saved queries once for all the inserted ones
+                    final long delta = lastInsertedRowId - MAX_SAVED_SEARCH_QUERY;
+                    if (delta > 0) {
+                        int deleted = database.delete(Tables.TABLE_SAVED_QUERIES, "rowId <= ?",
+                                new String[] { Long.toString(delta) });
+                        Log.d(LOG_TAG, "Deleted '" + deleted + "' saved Search query(ies)");
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                    mRecentSavedQueries = null;
                 }
             } catch (Exception e) {
                 Log.d(LOG_TAG, "Cannot update saved Search queries", e);
+                Arrays.fill(rowIds, -1);
             }
 
-            return lastInsertedRowId;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < count; n++) {
+                        final PendingSavedQuery pending = queries.get(n);
+                        final int callbackCount = pending.callbacks.size();
+                        for (int i = 0; i < callbackCount; i++) {
+                            pending.callbacks.get(i).onQuerySaved(pending.query, rowIds[n]);
+                        }
+                    }
+                }
+            });
         }
     }
 }
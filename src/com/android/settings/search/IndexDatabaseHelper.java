@@ -28,12 +28,13 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "IndexDatabaseHelper";
 
     private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 118;
+    private static final int DATABASE_VERSION = 120;
 
     public interface Tables {
         public static final String TABLE_PREFS_INDEX = "prefs_index";
         public static final String TABLE_META_INDEX = "meta_index";
         public static final String TABLE_SAVED_QUERIES = "saved_queries";
+        public static final String TABLE_INDEX_FINGERPRINTS = "index_fingerprints";
     }
 
     public interface IndexColumns {
@@ -57,6 +58,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         public static final String ENABLED = "enabled";
         public static final String DATA_KEY_REF = "data_key_reference";
         public static final String USER_ID = "user_id";
+        public static final String INDEXABLE_KEY = "indexable_key";
     }
 
     public interface MetaColumns {
@@ -68,6 +70,16 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         public static final String TIME_STAMP = "timestamp";
     }
 
+    public interface FingerprintColumns {
+        public static final String LOCALE = "locale";
+        public static final String INDEXABLE_KEY = "indexable_key";
+        public static final String XML_RES_ID = "xml_res_id";
+        public static final String PACKAGE_VERSION = "package_version";
+        public static final String PROVIDER_HASH = "provider_hash";
+        public static final String NON_INDEXABLE_KEYS_HASH = "non_indexable_keys_hash";
+        public static final String FORCED = "forced";
+    }
+
     private static final String CREATE_INDEX_TABLE =
             "CREATE VIRTUAL TABLE " + Tables.TABLE_PREFS_INDEX + " USING fts4" +
                     "(" +
@@ -108,6 +120,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     IndexColumns.DATA_KEY_REF +
                     ", " +
                     IndexColumns.USER_ID +
+                    ", " +
+                    IndexColumns.INDEXABLE_KEY +
                     ");";
 
     private static final String CREATE_META_TABLE =
@@ -124,6 +138,27 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     SavedQueriesColums.TIME_STAMP + " INTEGER" +
                     ")";
 
+    private static final String CREATE_INDEX_FINGERPRINTS_TABLE =
+            "CREATE TABLE " + Tables.TABLE_INDEX_FINGERPRINTS +
+                    "(" +
+                    FingerprintColumns.LOCALE + " VARCHAR(32) NOT NULL" +
+                    ", " +
+                    FingerprintColumns.INDEXABLE_KEY + " TEXT NOT NULL" +
+                    ", " +
+                    FingerprintColumns.XML_RES_ID + " INTEGER" +
+                    ", " +
+                    FingerprintColumns.PACKAGE_VERSION + " INTEGER" +
+                    ", " +
+                    FingerprintColumns.PROVIDER_HASH + " INTEGER" +
+                    ", " +
+                    FingerprintColumns.NON_INDEXABLE_KEYS_HASH + " INTEGER" +
+                    ", " +
+                    FingerprintColumns.FORCED + " INTEGER" +
+                    ", " +
+                    "PRIMARY KEY (" + FingerprintColumns.LOCALE + ", " +
+                    FingerprintColumns.INDEXABLE_KEY + ")" +
+                    ")";
+
     private static final String INSERT_BUILD_VERSION =
             "INSERT INTO " + Tables.TABLE_META_INDEX +
                     " VALUES ('" + Build.VERSION.INCREMENTAL + "');";
@@ -153,6 +188,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_INDEX_TABLE);
         db.execSQL(CREATE_META_TABLE);
         db.execSQL(CREATE_SAVED_QUERIES_TABLE);
+        db.execSQL(CREATE_INDEX_FINGERPRINTS_TABLE);
         db.execSQL(INSERT_BUILD_VERSION);
         Log.i(TAG, "Bootstrapped database");
     }
@@ -219,5 +255,6 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SAVED_QUERIES);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_INDEX_FINGERPRINTS);
     }
 }
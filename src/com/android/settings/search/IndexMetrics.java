@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process metrics of the search {@link Index}: timings of the indexing phases, row counts
+ * and latencies of the queries. They can be dumped with "dumpsys activity".
+ */
+public class IndexMetrics {
+
+    // Number of latest latencies kept for computing the percentiles
+    private static final int MAX_LATENCY_SAMPLES = 128;
+    // Number of slowest parsed classes that are dumped
+    private static final int MAX_DUMPED_PARSE_TIMINGS = 20;
+
+    /**
+     * Aggregated timings of an operation
+     */
+    private static class Timing {
+        public final String name;
+        public int count;
+        public long totalMillis;
+        public long maxMillis;
+        public long lastMillis;
+
+        public Timing(String name) {
+            this.name = name;
+        }
+
+        public void add(long millis) {
+            count++;
+            totalMillis += millis;
+            lastMillis = millis;
+            if (millis > maxMillis) {
+                maxMillis = millis;
+            }
+        }
+
+        public void dump(String prefix, PrintWriter pw) {
+            pw.print(prefix); pw.print(name);
+            pw.print(": count="); pw.print(count);
+            pw.print(" total="); pw.print(totalMillis);
+            pw.print("ms max="); pw.print(maxMillis);
+            pw.print("ms last="); pw.print(lastMillis);
+            pw.println("ms");
+        }
+    }
+
+    /**
+     * A ring buffer of the latest latencies of an operation
+     */
+    private static class Latencies {
+        public final String name;
+        private final long[] mSamples = new long[MAX_LATENCY_SAMPLES];
+        private int mCount;
+        private int mNext;
+
+        public Latencies(String name) {
+            this.name = name;
+        }
+
+        public void add(long millis) {
+            mSamples[mNext] = millis;
+            mNext = (mNext + 1) % MAX_LATENCY_SAMPLES;
+            if (mCount < MAX_LATENCY_SAMPLES) {
+                mCount++;
+            }
+        }
+
+        public void dump(String prefix, PrintWriter pw) {
+            pw.print(prefix); pw.print(name);
+            pw.print(": samples="); pw.print(mCount);
+            if (mCount > 0) {
+                final long[] sorted = Arrays.copyOf(mSamples, mCount);
+                Arrays.sort(sorted);
+                pw.print(" p50="); pw.print(percentile(sorted, 50));
+                pw.print("ms p90="); pw.print(percentile(sorted, 90));
+                pw.print("ms p99="); pw.print(percentile(sorted, 99));
+                pw.print("ms max="); pw.print(sorted[mCount - 1]);
+                pw.print("ms");
+            }
+            pw.println();
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            final int index = (sorted.length * percent + 99) / 100 - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+
+    private static final Comparator<Timing> SLOWEST_FIRST = new Comparator<Timing>() {
+        @Override
+        public int compare(Timing lhs, Timing rhs) {
+            return Long.compare(rhs.maxMillis, lhs.maxMillis);
+        }
+    };
+
+    private final Map<String, Timing> mProviderTimings = new HashMap<String, Timing>();
+    private final Map<String, Integer> mProviderTimeouts = new HashMap<String, Integer>();
+    private final Map<String, Timing> mParseTimings = new HashMap<String, Timing>();
+    private final Timing mTransactionTiming = new Timing("transaction");
+    private final Latencies mSearchLatencies = new Latencies("search");
+    private final Latencies mSuggestionsLatencies = new Latencies("suggestions");
+    private long mRowsInserted;
+    private long mRowsDeleted;
+    private long mResourcesSkipped;
+
+    /**
+     * Record the time taken for querying a remote indexables provider.
+     */
+    public synchronized void recordProviderQuery(String authority, long millis) {
+        getTiming(mProviderTimings, authority).add(millis);
+    }
+
+    /**
+     * Record that a remote indexables provider did not answer in time.
+     */
+    public synchronized void recordProviderTimeout(String authority) {
+        final Integer timeouts = mProviderTimeouts.get(authority);
+        mProviderTimeouts.put(authority, (timeouts == null) ? 1 : timeouts + 1);
+    }
+
+    /**
+     * Record the time taken for parsing the indexable data of a class.
+     */
+    public synchronized void recordParse(String className, long millis) {
+        getTiming(mParseTimings, className).add(millis);
+    }
+
+    /**
+     * Record the outcome of an Index database update transaction.
+     */
+    public synchronized void recordTransaction(long millis, int rowsInserted, int rowsDeleted,
+            int resourcesSkipped) {
+        mTransactionTiming.add(millis);
+        mRowsInserted += rowsInserted;
+        mRowsDeleted += rowsDeleted;
+        mResourcesSkipped += resourcesSkipped;
+    }
+
+    public synchronized void recordSearch(long millis) {
+        mSearchLatencies.add(millis);
+    }
+
+    public synchronized void recordSuggestions(long millis) {
+        mSuggestionsLatencies.add(millis);
+    }
+
+    public synchronized void dump(String prefix, PrintWriter pw) {
+        final String innerPrefix = prefix + "  ";
+
+        pw.print(prefix); pw.println("Search Index metrics:");
+        mTransactionTiming.dump(innerPrefix, pw);
+        pw.print(innerPrefix); pw.print("rows inserted="); pw.print(mRowsInserted);
+        pw.print(" deleted="); pw.print(mRowsDeleted);
+        pw.print(" unchanged resources skipped="); pw.println(mResourcesSkipped);
+        mSearchLatencies.dump(innerPrefix, pw);
+        mSuggestionsLatencies.dump(innerPrefix, pw);
+
+        pw.print(prefix); pw.println("Remote providers:");
+        dumpTimings(innerPrefix, pw, mProviderTimings, Integer.MAX_VALUE);
+        for (Map.Entry<String, Integer> entry : mProviderTimeouts.entrySet()) {
+            pw.print(innerPrefix); pw.print(entry.getKey());
+            pw.print(": timeouts="); pw.println(entry.getValue());
+        }
+
+        pw.print(prefix); pw.println("Slowest parsed classes:");
+        dumpTimings(innerPrefix, pw, mParseTimings, MAX_DUMPED_PARSE_TIMINGS);
+    }
+
+    private static Timing getTiming(Map<String, Timing> timings, String name) {
+        Timing timing = timings.get(name);
+        if (timing == null) {
+            timing = new Timing(name);
+            timings.put(name, timing);
+        }
+        return timing;
+    }
+
+    private static void dumpTimings(String prefix, PrintWriter pw, Map<String, Timing> timings,
+            int max) {
+        final List<Timing> sorted = new ArrayList<Timing>(timings.values());
+        Collections.sort(sorted, SLOWEST_FIRST);
+        final int count = Math.min(max, sorted.size());
+        for (int n = 0; n < count; n++) {
+            sorted.get(n).dump(prefix, pw);
+        }
+    }
+}
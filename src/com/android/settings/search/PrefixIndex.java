@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An in-memory prefix index of the Index database rows for one locale.
+ *
+ * It can only answer single term queries that are not longer than {@link #MAX_PREFIX_LENGTH}.
+ * Terms are split the same way the FTS "simple" tokenizer does, so that the results are the same
+ * as the ones of the database, and they are scored with {@link Ranking#getScore}. Other queries
+ * need to go to the database.
+ */
+class PrefixIndex {
+
+    // Max length of the prefixes kept in the trie
+    public static final int MAX_PREFIX_LENGTH = 4;
+
+    private static final int[] EMPTY_ROWS = new int[0];
+
+    /**
+     * A trie node. It keeps the ordered row numbers having a term starting with the node prefix.
+     */
+    private static class Node {
+        public final SparseArray<Node> children = new SparseArray<Node>();
+
+        public int[] primaryRows = EMPTY_ROWS;
+        public int primaryCount;
+        public int[] secondaryRows = EMPTY_ROWS;
+        public int secondaryCount;
+
+        public Node getOrCreateChild(char c) {
+            Node child = children.get(c);
+            if (child == null) {
+                child = new Node();
+                children.put(c, child);
+            }
+            return child;
+        }
+
+        public void addRow(int row, boolean primary) {
+            if (primary) {
+                if (primaryCount > 0 && primaryRows[primaryCount - 1] == row) {
+                    return;
+                }
+                if (primaryCount == primaryRows.length) {
+                    primaryRows = Arrays.copyOf(primaryRows, Math.max(4, primaryCount * 2));
+                }
+                primaryRows[primaryCount++] = row;
+            } else {
+                if (secondaryCount > 0 && secondaryRows[secondaryCount - 1] == row) {
+                    return;
+                }
+                if (secondaryCount == secondaryRows.length) {
+                    secondaryRows = Arrays.copyOf(secondaryRows, Math.max(4, secondaryCount * 2));
+                }
+                secondaryRows[secondaryCount++] = row;
+            }
+        }
+    }
+
+    /**
+     * A row matching a query, with its score
+     */
+    private static class Result {
+        public final int row;
+        public final int rank;
+        public final int score;
+        public final boolean primary;
+
+        public Result(int row, int rank, int score, boolean primary) {
+            this.row = row;
+            this.rank = rank;
+            this.score = score;
+            this.primary = primary;
+        }
+    }
+
+    private static final Comparator<Result> BEST_SCORE_FIRST = new Comparator<Result>() {
+        @Override
+        public int compare(Result lhs, Result rhs) {
+            if (lhs.score != rhs.score) {
+                return lhs.score < rhs.score ? -1 : 1;
+            }
+            return lhs.rank < rhs.rank ? -1 : (lhs.rank == rhs.rank ? 0 : 1);
+        }
+    };
+
+    private final String mLocale;
+    private final String[] mColumnNames;
+    private final List<Object[]> mRows = new ArrayList<Object[]>();
+    private final List<String[]> mMatchTexts = new ArrayList<String[]>();
+    private final Node mRoot = new Node();
+    private final int mRankColumn;
+    private final int mTitleText;
+    private final int mNormalizedTitleText;
+
+    /**
+     * Build the prefix index.
+     *
+     * @param locale the locale of the rows.
+     * @param columnNames the names of the columns of the returned cursors. The last one is the
+     *                    match group column, the others are read from the cursor.
+     * @param cursor the rows to index, ordered by rank.
+     * @param primaryColumns the cursor columns matched for a primary result.
+     * @param secondaryColumns the cursor columns matched for a secondary result.
+     * @param rankColumn the cursor column of the rank.
+     * @param titleColumn the cursor column of the title.
+     * @param normalizedTitleColumn the cursor column of the normalized title.
+     */
+    public PrefixIndex(String locale, String[] columnNames, Cursor cursor,
+            int[] primaryColumns, int[] secondaryColumns,
+            int rankColumn, int titleColumn, int normalizedTitleColumn) {
+        mLocale = locale;
+        mColumnNames = columnNames;
+        mRankColumn = rankColumn;
+        mTitleText = primaryColumns.length + secondaryColumns.length;
+        mNormalizedTitleText = mTitleText + 1;
+
+        final int valueCount = columnNames.length - 1;
+        while (cursor.moveToNext()) {
+            final Object[] values = new Object[valueCount + 1];
+            for (int n = 0; n < valueCount; n++) {
+                values[n] = cursor.getString(n);
+            }
+            final int row = mRows.size();
+            mRows.add(values);
+
+            // The matched texts, followed by the titles used for scoring
+            final String[] texts = new String[mNormalizedTitleText + 1];
+            int index = 0;
+            for (int n = 0; n < primaryColumns.length; n++) {
+                texts[index] = cursor.getString(primaryColumns[n]);
+                addTerms(texts[index++], row, true);
+            }
+            for (int n = 0; n < secondaryColumns.length; n++) {
+                texts[index] = cursor.getString(secondaryColumns[n]);
+                addTerms(texts[index++], row, false);
+            }
+            texts[mTitleText] = toLowerCase(cursor.getString(titleColumn));
+            texts[mNormalizedTitleText] = toLowerCase(cursor.getString(normalizedTitleColumn));
+            mMatchTexts.add(texts);
+        }
+    }
+
+    public String getLocale() {
+        return mLocale;
+    }
+
+    /**
+     * @return true if the query can be answered by a prefix index.
+     */
+    public static boolean canSearch(String query) {
+        return getTerm(query) != null;
+    }
+
+    /**
+     * @param query the query.
+     * @param recentQueries the lower case recently saved queries.
+     * @return the results matching the query ordered by score, or null if the query cannot be
+     *         answered by this prefix index.
+     */
+    public Cursor search(String query, List<String> recentQueries) {
+        final String term = getTerm(query);
+        if (term == null) {
+            return null;
+        }
+
+        final MatrixCursor cursor = new MatrixCursor(mColumnNames);
+
+        Node node = mRoot;
+        final int length = term.length();
+        for (int n = 0; n < length && node != null; n++) {
+            node = node.children.get(term.charAt(n));
+        }
+        if (node == null) {
+            return cursor;
+        }
+
+        final List<Result> results =
+                new ArrayList<Result>(node.primaryCount + node.secondaryCount);
+        for (int n = 0; n < node.primaryCount; n++) {
+            results.add(getResult(node.primaryRows[n], term, true, recentQueries));
+        }
+        for (int n = 0; n < node.secondaryCount; n++) {
+            final int row = node.secondaryRows[n];
+            if (Arrays.binarySearch(node.primaryRows, 0, node.primaryCount, row) >= 0) {
+                continue;
+            }
+            results.add(getResult(row, term, false, recentQueries));
+        }
+        Collections.sort(results, BEST_SCORE_FIRST);
+
+        final int matchGroupColumn = mColumnNames.length - 1;
+        final int count = results.size();
+        for (int n = 0; n < count; n++) {
+            final Result result = results.get(n);
+            final Object[] values = mRows.get(result.row).clone();
+            values[matchGroupColumn] = result.primary
+                    ? Index.MATCH_GROUP_PRIMARY : Index.MATCH_GROUP_SECONDARY;
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private Result getResult(int row, String term, boolean primary, List<String> recentQueries) {
+        final String[] texts = mMatchTexts.get(row);
+        final String title = texts[mTitleText];
+        final String normalizedTitle = texts[mNormalizedTitleText];
+
+        int hits = 0;
+        for (int n = 0; n < mTitleText; n++) {
+            hits += countHits(texts[n], term);
+        }
+
+        final boolean titlePrefix = (title != null && title.startsWith(term))
+                || (normalizedTitle != null && normalizedTitle.startsWith(term));
+
+        boolean recent = false;
+        if (normalizedTitle != null) {
+            final int count = recentQueries.size();
+            for (int n = 0; n < count && !recent; n++) {
+                recent = normalizedTitle.startsWith(recentQueries.get(n));
+            }
+        }
+
+        final int rank = parseRank((String) mRows.get(row)[mRankColumn]);
+        return new Result(row, rank,
+                Ranking.getScore(rank, primary, titlePrefix, hits, recent), primary);
+    }
+
+    private static int parseRank(String rank) {
+        try {
+            return Integer.parseInt(rank);
+        } catch (NumberFormatException e) {
+            return Ranking.RANK_OTHERS;
+        }
+    }
+
+    private static int countHits(String text, String term) {
+        if (text == null) {
+            return 0;
+        }
+        int hits = 0;
+        int termLength = 0;
+        boolean matching = false;
+        final int length = text.length();
+        for (int n = 0; n < length; n++) {
+            final char c = text.charAt(n);
+            if (!isTermChar(c)) {
+                termLength = 0;
+                continue;
+            }
+            if (termLength == 0) {
+                matching = true;
+            }
+            if (matching && termLength < term.length()) {
+                matching = toLowerCase(c) == term.charAt(termLength);
+                if (matching && termLength == term.length() - 1) {
+                    hits++;
+                }
+            }
+            termLength++;
+        }
+        return hits;
+    }
+
+    private void addTerms(String text, int row, boolean primary) {
+        if (text == null) {
+            return;
+        }
+        Node node = mRoot;
+        int termLength = 0;
+        final int length = text.length();
+        for (int n = 0; n < length; n++) {
+            final char c = text.charAt(n);
+            if (!isTermChar(c)) {
+                node = mRoot;
+                termLength = 0;
+                continue;
+            }
+            if (termLength < MAX_PREFIX_LENGTH) {
+                node = node.getOrCreateChild(toLowerCase(c));
+                node.addRow(row, primary);
+            }
+            termLength++;
+        }
+    }
+
+    /**
+     * @return the lower case term of a single term query, or null if the query is not a single
+     *         term of at most {@link #MAX_PREFIX_LENGTH} characters.
+     */
+    private static String getTerm(String query) {
+        if (query == null) {
+            return null;
+        }
+        final String trimmed = query.trim();
+        final int length = trimmed.length();
+        if (length == 0 || length > MAX_PREFIX_LENGTH) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (int n = 0; n < length; n++) {
+            final char c = trimmed.charAt(n);
+            if (!isTermChar(c)) {
+                return null;
+            }
+            sb.append(toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    // The FTS "simple" tokenizer keeps ASCII alphanumerics and all non ASCII characters
+    private static boolean isTermChar(char c) {
+        return c >= 128 || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9');
+    }
+
+    // ...and only folds the ASCII characters
+    private static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String toLowerCase(String s) {
+        if (s == null) {
+            return null;
+        }
+        final char[] chars = s.toCharArray();
+        for (int n = 0; n < chars.length; n++) {
+            chars[n] = toLowerCase(chars[n]);
+        }
+        return new String(chars);
+    }
+}
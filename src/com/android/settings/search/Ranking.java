@@ -105,6 +105,18 @@ public final class Ranking {
 
     public static int sCurrentBaseRank = BASE_RANK_DEFAULT;
 
+    // Weights for scoring a search result from its rank. The lower the score, the better.
+    // The penalty is larger than any rank, as the base ranks of the remote providers are
+    // above BASE_RANK_DEFAULT, so that secondary matches always come last.
+    public static final int SCORE_SECONDARY_MATCH_PENALTY = 1 << 20;
+    public static final int SCORE_TITLE_PREFIX_BONUS = 16;
+    public static final int SCORE_RECENT_QUERY_BONUS = 8;
+    public static final int SCORE_HIT_BONUS = 2;
+    public static final int SCORE_MAX_HITS = 4;
+
+    // Max age of a saved query for boosting the results it is a prefix of
+    public static final long RECENT_QUERY_MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
     private static HashMap<String, Integer> sRankMap = new HashMap<String, Integer>();
     private static HashMap<String, Integer> sBaseRankMap = new HashMap<String, Integer>();
 
@@ -225,6 +237,32 @@ public final class Ranking {
         return (rank != null) ? (int) rank: RANK_OTHERS;
     }
 
+    /**
+     * Compute the score of a search result. This should match the score computed by the
+     * search query of {@link Index}.
+     *
+     * @param rank the rank of the result.
+     * @param primary true if the result matches on its title or keywords.
+     * @param titlePrefix true if the title of the result starts with the query.
+     * @param hits the number of terms of the result matching the query.
+     * @param recent true if the title of the result starts with a recently saved query.
+     */
+    public static int getScore(int rank, boolean primary, boolean titlePrefix, int hits,
+            boolean recent) {
+        int score = rank;
+        if (!primary) {
+            score += SCORE_SECONDARY_MATCH_PENALTY;
+        }
+        if (titlePrefix) {
+            score -= SCORE_TITLE_PREFIX_BONUS;
+        }
+        if (recent) {
+            score -= SCORE_RECENT_QUERY_BONUS;
+        }
+        score -= Math.min(hits, SCORE_MAX_HITS) * SCORE_HIT_BONUS;
+        return score;
+    }
+
     public static int getBaseRankForAuthority(String authority) {
         synchronized (sBaseRankMap) {
             Integer base = sBaseRankMap.get(authority);
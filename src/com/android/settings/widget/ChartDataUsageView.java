@@ -37,8 +37,12 @@ import android.view.View;
 import com.android.settings.R;
 import com.android.settings.widget.ChartSweepView.OnSweepListener;
 
+import java.math.RoundingMode;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -531,28 +535,51 @@ public class ChartDataUsageView extends ChartView {
         private static final Object sSpanSize = new Object();
         private static final Object sSpanUnit = new Object();
 
+        // Labels are rebuilt on each step of a sweep drag, so keep what is
+        // needed to build them instead of formatting and loading them again.
+        private final StringBuffer mLabelSize = new StringBuffer();
+        private final FieldPosition mLabelField = new FieldPosition(0);
+        private Locale mLabelLocale;
+        private NumberFormat mFormatTenths;
+        private NumberFormat mFormatUnits;
+        private Resources mUnitRes;
+        private CharSequence mUnitMegabytes;
+        private CharSequence mUnitGigabytes;
+
         @Override
         public long buildLabel(Resources res, SpannableStringBuilder builder, long value) {
+            if (mUnitRes != res) {
+                mUnitRes = res;
+                mUnitMegabytes = res.getText(com.android.internal.R.string.megabyteShort);
+                mUnitGigabytes = res.getText(com.android.internal.R.string.gigabyteShort);
+            }
+            final Locale locale = Locale.getDefault();
+            if (!locale.equals(mLabelLocale)) {
+                mLabelLocale = locale;
+                mFormatTenths = createLabelFormat(locale, 1);
+                mFormatUnits = createLabelFormat(locale, 0);
+            }
 
             final CharSequence unit;
             final long unitFactor;
             if (value < 1000 * MB_IN_BYTES) {
-                unit = res.getText(com.android.internal.R.string.megabyteShort);
+                unit = mUnitMegabytes;
                 unitFactor = MB_IN_BYTES;
             } else {
-                unit = res.getText(com.android.internal.R.string.gigabyteShort);
+                unit = mUnitGigabytes;
                 unitFactor = GB_IN_BYTES;
             }
 
             final double result = (double) value / unitFactor;
             final double resultRounded;
-            final CharSequence size;
+            final CharSequence size = mLabelSize;
 
+            mLabelSize.setLength(0);
             if (result < 10) {
-                size = String.format("%.1f", result);
+                mFormatTenths.format(result, mLabelSize, mLabelField);
                 resultRounded = (unitFactor * Math.round(result * 10)) / 10;
             } else {
-                size = String.format("%.0f", result);
+                mFormatUnits.format(result, mLabelSize, mLabelField);
                 resultRounded = unitFactor * Math.round(result);
             }
 
@@ -592,6 +619,19 @@ public class ChartDataUsageView extends ChartView {
         }
     }
 
+    /**
+     * Same formatting as {@code String.format("%.nf")}, for the given number
+     * of fraction digits.
+     */
+    private static NumberFormat createLabelFormat(Locale locale, int fractionDigits) {
+        final NumberFormat format = NumberFormat.getInstance(locale);
+        format.setGroupingUsed(false);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        format.setMinimumFractionDigits(fractionDigits);
+        format.setMaximumFractionDigits(fractionDigits);
+        return format;
+    }
+
     private static void setText(
             SpannableStringBuilder builder, Object key, CharSequence text, String bootstrap) {
         int start = builder.getSpanStart(key);
@@ -600,10 +640,27 @@ public class ChartDataUsageView extends ChartView {
             start = TextUtils.indexOf(builder, bootstrap);
             end = start + bootstrap.length();
             builder.setSpan(key, start, end, Spannable.SPAN_INCLUSIVE_INCLUSIVE);
+        } else if (regionEquals(builder, start, end, text)) {
+            // unchanged; avoid reflowing the layouts of the label
+            return;
         }
         builder.replace(start, end, text);
     }
 
+    private static boolean regionEquals(
+            CharSequence builder, int start, int end, CharSequence text) {
+        final int length = text.length();
+        if (end - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (builder.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static long roundUpToPowerOfTwo(long i) {
         // NOTE: borrowed from Hashtable.roundUpToPowerOfTwo()
 
@@ -36,6 +36,8 @@ import android.view.View;
 import com.android.internal.util.Preconditions;
 import com.android.settings.R;
 
+import java.util.Arrays;
+
 /**
  * {@link NetworkStatsHistory} series to render inside a {@link ChartView},
  * using {@link ChartAxis} to map into screen coordinates.
@@ -75,6 +77,23 @@ public class ChartNetworkSeriesView extends View {
     private long mMax;
     private long mMaxEstimate;
 
+    /**
+     * Decimated series, as horizontal pixels and cumulative bytes, with at
+     * most two points per pixel column. It only depends on the horizontal
+     * mapping, so it is reused when only the vertical axis changes, such as
+     * while a sweep is dragged.
+     */
+    private float[] mPointsX = new float[0];
+    private long[] mPointsData = new long[0];
+    private int mPointsCount;
+    private boolean mPointsValid = false;
+    private long mPointsStart;
+    private long mPointsEnd;
+    private long mPointsEndTime;
+    private int mPointsWidth;
+    private long mPointsLastTime;
+    private long mPointsTotal;
+
     public ChartNetworkSeriesView(Context context) {
         this(context, null, 0);
     }
@@ -143,6 +162,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        mPointsValid = false;
         invalidatePath();
         invalidate();
     }
@@ -163,34 +183,26 @@ public class ChartNetworkSeriesView extends View {
     }
 
     /**
-     * Erase any existing {@link Path} and generate series outline based on
-     * currently bound {@link NetworkStatsHistory} data.
+     * Generate the decimated series points based on currently bound
+     * {@link NetworkStatsHistory} data, unless the horizontal mapping did not
+     * change since they were last generated.
      */
-    private void generatePath() {
-        if (LOGD) Log.d(TAG, "generatePath()");
-
-        mMax = 0;
-        mPathStroke.reset();
-        mPathFill.reset();
-        mPathEstimate.reset();
-        mPathValid = true;
-
-        // bail when not enough stats to render
-        if (mStats == null || mStats.size() < 2) {
+    private void generatePoints() {
+        final int width = getWidth();
+        if (mPointsValid && mPointsStart == mStart && mPointsEnd == mEnd
+                && mPointsEndTime == mEndTime && mPointsWidth == width) {
             return;
         }
+        if (LOGD) Log.d(TAG, "generatePoints()");
 
-        final int width = getWidth();
-        final int height = getHeight();
-
-        boolean started = false;
-        float lastX = 0;
-        float lastY = height;
-        long lastTime = mHoriz.convertToValue(lastX);
+        mPointsValid = true;
+        mPointsStart = mStart;
+        mPointsEnd = mEnd;
+        mPointsEndTime = mEndTime;
+        mPointsWidth = width;
+        mPointsCount = 0;
 
-        // move into starting position
-        mPathStroke.moveTo(lastX, lastY);
-        mPathFill.moveTo(lastX, lastY);
+        long lastTime = mHoriz.convertToValue(0);
 
         // TODO: count fractional data from first bucket crossing start;
         // currently it only accepts first full bucket.
@@ -213,40 +225,99 @@ public class ChartNetworkSeriesView extends View {
             // skip until we find first stats on screen
             if (endX < 0) continue;
 
-            // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
-
-            final float startY = lastY;
-            final float endY = mVert.convertToPoint(totalData);
-
             if (lastTime != startTime) {
                 // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
+                addPoint(startX, totalData);
             }
 
+            // increment by current bucket total
+            totalData += entry.rxBytes + entry.txBytes;
+
             // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
+            addPoint(endX, totalData);
 
-            lastX = endX;
-            lastY = endY;
             lastTime = endTime;
         }
 
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
-            lastX = mHoriz.convertToPoint(mEndTime);
+            addPoint(mHoriz.convertToPoint(mEndTime), totalData);
+        }
+
+        mPointsLastTime = lastTime;
+        mPointsTotal = totalData;
+    }
+
+    /**
+     * Append a point to the series. The series is cumulative, so the first
+     * and last points of a pixel column are its extremes, and the points in
+     * between are dropped.
+     */
+    private void addPoint(float x, long data) {
+        final int column = (int) x;
+        if (mPointsCount >= 2 && (int) mPointsX[mPointsCount - 1] == column
+                && (int) mPointsX[mPointsCount - 2] == column) {
+            mPointsX[mPointsCount - 1] = x;
+            mPointsData[mPointsCount - 1] = data;
+            return;
+        }
+        if (mPointsCount == mPointsX.length) {
+            final int capacity = Math.max(32, mPointsCount * 2);
+            mPointsX = Arrays.copyOf(mPointsX, capacity);
+            mPointsData = Arrays.copyOf(mPointsData, capacity);
+        }
+        mPointsX[mPointsCount] = x;
+        mPointsData[mPointsCount] = data;
+        mPointsCount++;
+    }
+
+    /**
+     * Erase any existing {@link Path} and generate series outline based on
+     * currently bound {@link NetworkStatsHistory} data.
+     */
+    private void generatePath() {
+        if (LOGD) Log.d(TAG, "generatePath()");
+
+        mMax = 0;
+        mPathStroke.reset();
+        mPathFill.reset();
+        mPathEstimate.reset();
+        mPathValid = true;
+
+        // bail when not enough stats to render
+        if (mStats == null || mStats.size() < 2) {
+            return;
+        }
+
+        generatePoints();
+
+        final int width = getWidth();
+        final int height = getHeight();
+
+        float lastX = 0;
+        float lastY = height;
+        long totalData = 0;
+
+        // move into starting position
+        mPathStroke.moveTo(lastX, lastY);
+        mPathFill.moveTo(lastX, lastY);
+
+        for (int i = 0; i < mPointsCount; i++) {
+            lastX = mPointsX[i];
+            lastY = mVert.convertToPoint(mPointsData[i]);
+            totalData = mPointsData[i];
 
             mPathStroke.lineTo(lastX, lastY);
             mPathFill.lineTo(lastX, lastY);
         }
 
+        final long lastTime = mPointsLastTime;
+
         if (LOGD) {
             final RectF bounds = new RectF();
             mPathFill.computeBounds(bounds, true);
             Log.d(TAG, "onLayout() rendered with bounds=" + bounds.toString() + " and totalData="
-                    + totalData);
+                    + totalData + " from " + mPointsCount + " points");
         }
 
         // drop to bottom of graph from current location
@@ -256,6 +327,8 @@ public class ChartNetworkSeriesView extends View {
         mMax = totalData;
 
         if (ESTIMATE_ENABLED) {
+            NetworkStatsHistory.Entry entry = null;
+
             // build estimated data
             mPathEstimate.moveTo(lastX, lastY);
 
@@ -291,6 +364,13 @@ public class ChartNetworkSeriesView extends View {
         invalidate();
     }
 
+    /**
+     * Return the number of points in the last generated series.
+     */
+    int getPointCount() {
+        return mPointsCount;
+    }
+
     public void setEndTime(long endTime) {
         mEndTime = endTime;
     }
@@ -306,7 +386,11 @@ public class ChartNetworkSeriesView extends View {
 
     public long getMaxVisible() {
         final long maxVisible = mEstimateVisible ? mMaxEstimate : mMax;
-        if (maxVisible <= 0 && mStats != null) {
+        if (maxVisible <= 0 && mPointsValid && mPointsStart == mStart && mPointsEnd == mEnd
+                && mPointsEndTime == mEndTime && mPointsWidth == getWidth()) {
+            // path only invalidated for a vertical axis change; points still valid
+            return mPointsTotal;
+        } else if (maxVisible <= 0 && mStats != null) {
             // haven't generated path yet; fall back to raw data
             final NetworkStatsHistory.Entry entry = mStats.getValues(mStart, mEnd, null);
             return entry.rxBytes + entry.txBytes;
@@ -30,6 +30,7 @@ import android.text.Layout;
 import android.text.Layout.Alignment;
 import android.text.SpannableStringBuilder;
 import android.text.TextPaint;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.MathUtils;
 import android.view.MotionEvent;
@@ -70,6 +71,9 @@ public class ChartSweepView extends View {
 
     private SpannableStringBuilder mLabelTemplate;
     private DynamicLayout mLabelLayout;
+    /** Last label text, and its measured width. */
+    private String mLabelText;
+    private float mLabelWidth;
 
     private ChartAxis mAxis;
     private long mValue;
@@ -109,6 +113,11 @@ public class ChartSweepView extends View {
 
     private ChartSweepView[] mNeighbors = new ChartSweepView[0];
 
+    // Reused while tracking a drag, to avoid allocating on each motion event
+    private final Rect mParentContent = new Rect();
+    private final Rect mClampRect = new Rect();
+    private final Rect mDynamicClampRect = new Rect();
+
     public ChartSweepView(Context context) {
         this(context, null);
     }
@@ -265,11 +274,13 @@ public class ChartSweepView extends View {
             mLabelTemplate = new SpannableStringBuilder(template);
             mLabelLayout = new DynamicLayout(
                     mLabelTemplate, paint, LARGE_WIDTH, Alignment.ALIGN_RIGHT, 1f, 0f, false);
+            mLabelText = null;
             invalidateLabel();
 
         } else {
             mLabelTemplate = null;
             mLabelLayout = null;
+            mLabelText = null;
         }
 
         invalidate();
@@ -279,7 +290,12 @@ public class ChartSweepView extends View {
     private void invalidateLabel() {
         if (mLabelTemplate != null && mAxis != null) {
             mLabelValue = mAxis.buildLabel(getResources(), mLabelTemplate, mValue);
-            setContentDescription(mLabelTemplate);
+            // most drag steps don't change the rounded label, only measure it when it does
+            if (mLabelText == null || !TextUtils.equals(mLabelText, mLabelTemplate)) {
+                mLabelText = mLabelTemplate.toString();
+                mLabelWidth = Layout.getDesiredWidth(mLabelTemplate, mLabelLayout.getPaint());
+                setContentDescription(mLabelText);
+            }
             invalidateLabelOffset();
             invalidate();
         } else {
@@ -350,6 +366,9 @@ public class ChartSweepView extends View {
     }
 
     public void setValue(long value) {
+        if (value == mValue && mLabelText != null) {
+            return;
+        }
         mValue = value;
         invalidateLabel();
     }
@@ -554,9 +573,10 @@ public class ChartSweepView extends View {
 
     private Rect getParentContentRect() {
         final View parent = (View) getParent();
-        return new Rect(parent.getPaddingLeft(), parent.getPaddingTop(),
+        mParentContent.set(parent.getPaddingLeft(), parent.getPaddingTop(),
                 parent.getWidth() - parent.getPaddingRight(),
                 parent.getHeight() - parent.getPaddingBottom());
+        return mParentContent;
     }
 
     @Override
@@ -586,9 +606,10 @@ public class ChartSweepView extends View {
      */
     private Rect computeClampRect(Rect parentContent) {
         // create two rectangles, and pick most restrictive combination
-        final Rect rect = buildClampRect(parentContent, mValidAfter, mValidBefore, 0f);
-        final Rect dynamicRect = buildClampRect(
-                parentContent, getValidAfterDynamic(), getValidBeforeDynamic(), mNeighborMargin);
+        final Rect rect = buildClampRect(
+                mClampRect, parentContent, mValidAfter, mValidBefore, 0f);
+        final Rect dynamicRect = buildClampRect(mDynamicClampRect, parentContent,
+                getValidAfterDynamic(), getValidBeforeDynamic(), mNeighborMargin);
 
         if (!rect.intersect(dynamicRect)) {
             rect.setEmpty();
@@ -596,7 +617,7 @@ public class ChartSweepView extends View {
         return rect;
     }
 
-    private Rect buildClampRect(
+    private Rect buildClampRect(Rect clampRect,
             Rect parentContent, long afterValue, long beforeValue, float margin) {
         if (mAxis instanceof InvertedChartAxis) {
             long temp = beforeValue;
@@ -610,7 +631,7 @@ public class ChartSweepView extends View {
         final float afterPoint = mAxis.convertToPoint(afterValue) + margin;
         final float beforePoint = mAxis.convertToPoint(beforeValue) - margin;
 
-        final Rect clampRect = new Rect(parentContent);
+        clampRect.set(parentContent);
         if (mFollowAxis == VERTICAL) {
             if (beforeValid) clampRect.bottom = clampRect.top + (int) beforePoint;
             if (afterValid) clampRect.top += afterPoint;
@@ -744,6 +765,9 @@ public class ChartSweepView extends View {
     }
 
     public static float getLabelWidth(ChartSweepView view) {
+        if (view.mLabelText != null) {
+            return view.mLabelWidth;
+        }
         return Layout.getDesiredWidth(view.mLabelLayout.getText(), view.mLabelLayout.getPaint());
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.settings.DataUsageSummary.AppItem;
+import com.android.settings.DataUsageSummary.DataUsageAdapter;
+import com.android.settings.net.ChartData;
+import com.android.settings.net.ChartDataLoader;
+import com.android.settings.net.UidDetailProvider;
+
+/**
+ * Measures the data usage aggregation and chart rendering on generated network
+ * stats, from 1k to 50k entries. Timings are only logged, as they depend on the
+ * device; the allocation and call counts they drive are what fail the tests.
+ */
+@LargeTest
+public class DataUsagePerformanceTest extends AndroidTestCase {
+    private static final String TAG = "DataUsagePerformanceTest";
+
+    private static final int[] SIZES = { 1000, 10000, 50000 };
+
+    private static final int CHART_WIDTH = 1080;
+    private static final int CHART_HEIGHT = 400;
+
+    // Uids of the shared system item of the loader tests, and how many of
+    // them have any history
+    private static final int SYSTEM_UIDS = 64;
+    private static final int SYSTEM_UIDS_WITH_HISTORY = 8;
+
+    private final NetworkTemplate mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+
+    /**
+     * Rebinding the same cycle must reuse the items of the previous bind, so
+     * its allocations must not grow with the number of entries.
+     */
+    public void testBindStats() {
+        final UserManager um = (UserManager) getContext().getSystemService(Context.USER_SERVICE);
+        final DataUsageAdapter adapter = new DataUsageAdapter(um,
+                new UidDetailProvider(getContext()), 0);
+        final int[] restrictedUids = new int[0];
+
+        for (int size : SIZES) {
+            final NetworkStats stats = buildSummary(size);
+            final long end = System.currentTimeMillis();
+            final long start = end - HOUR_IN_MILLIS * size;
+
+            startCounting();
+            adapter.bindStats(stats, restrictedUids, mTemplate, start, end);
+            final long firstMillis = elapsedMillis();
+            final int firstAllocs = Debug.getThreadAllocCount();
+
+            startCounting();
+            adapter.bindStats(stats, restrictedUids, mTemplate, start, end);
+            final long rebindMillis = elapsedMillis();
+            final int rebindAllocs = Debug.getThreadAllocCount();
+            stopCounting();
+
+            Log.i(TAG, "bindStats entries=" + size + " items=" + adapter.getCount()
+                    + " first=" + firstMillis + "ms/" + firstAllocs + " allocs"
+                    + " rebind=" + rebindMillis + "ms/" + rebindAllocs + " allocs");
+            assertTrue("rebind allocated " + rebindAllocs + " objects for " + size + " entries",
+                    rebindAllocs < size / 10);
+        }
+    }
+
+    /**
+     * Histories must only be requested for the uids of an item that have
+     * any data, whatever the size of those histories.
+     */
+    public void testChartDataLoader() {
+        final AppItem app = new AppItem(Process.SYSTEM_UID);
+        for (int i = 0; i < SYSTEM_UIDS; i++) {
+            app.addUid(Process.FIRST_APPLICATION_UID - SYSTEM_UIDS + i);
+        }
+
+        for (int size : SIZES) {
+            final FakeStatsSession session = new FakeStatsSession(app, size);
+            final ChartDataLoader loader = new ChartDataLoader(getContext(), session,
+                    ChartDataLoader.buildArgs(mTemplate, app));
+
+            startCounting();
+            final ChartData data = loader.loadInBackground();
+            final long millis = elapsedMillis();
+            final int allocs = Debug.getThreadAllocCount();
+            stopCounting();
+
+            Log.i(TAG, "ChartDataLoader buckets=" + size + " uids=" + SYSTEM_UIDS
+                    + " historyRequests=" + session.historyRequests
+                    + " time=" + millis + "ms allocs=" + allocs);
+            assertEquals(SYSTEM_UIDS_WITH_HISTORY, session.historyRequests);
+            assertEquals(size, data.detail.size());
+        }
+    }
+
+    /**
+     * The series path must have at most two points per pixel column, and
+     * must not be regenerated for a vertical axis change only.
+     */
+    public void testGeneratePath() {
+        final Bitmap bitmap = Bitmap.createBitmap(
+                CHART_WIDTH, CHART_HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+
+        for (int size : SIZES) {
+            final NetworkStatsHistory history = buildHistory(size);
+            final long start = history.getStart();
+            final long end = history.getEnd();
+
+            final ChartAxis horiz = new ChartDataUsageView.TimeAxis();
+            final ChartAxis vert = new InvertedChartAxis(new ChartDataUsageView.DataAxis());
+            horiz.setBounds(start, end);
+            horiz.setSize(CHART_WIDTH);
+            vert.setBounds(0, history.getTotalBytes());
+            vert.setSize(CHART_HEIGHT);
+
+            final ChartNetworkSeriesView series = new ChartNetworkSeriesView(getContext());
+            series.init(horiz, vert);
+            series.layout(0, 0, CHART_WIDTH, CHART_HEIGHT);
+            series.setBounds(start, end);
+            series.setEndTime(end);
+            series.bindNetworkStats(history);
+
+            startCounting();
+            series.draw(canvas);
+            final long firstMillis = elapsedMillis();
+            final int points = series.getPointCount();
+
+            vert.setBounds(0, history.getTotalBytes() * 2);
+            series.invalidatePath();
+            startCounting();
+            series.draw(canvas);
+            final long redrawMillis = elapsedMillis();
+            final int redrawAllocs = Debug.getThreadAllocCount();
+            stopCounting();
+
+            Log.i(TAG, "generatePath buckets=" + size + " points=" + points
+                    + " first=" + firstMillis + "ms redraw=" + redrawMillis + "ms/"
+                    + redrawAllocs + " allocs");
+            assertTrue("series has " + points + " points for " + CHART_WIDTH + " pixels",
+                    points <= CHART_WIDTH * 2 + 2);
+            assertTrue("redraw allocated " + redrawAllocs + " objects",
+                    redrawAllocs < size / 10);
+        }
+
+        bitmap.recycle();
+    }
+
+    private long mStartTime;
+
+    private void startCounting() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    private long elapsedMillis() {
+        return SystemClock.elapsedRealtime() - mStartTime;
+    }
+
+    private static void stopCounting() {
+        Debug.stopAllocCounting();
+    }
+
+    /**
+     * Build a summary of the given number of entries, with both sets of half
+     * as many app uids spread across the current user and a second one.
+     */
+    private static NetworkStats buildSummary(int size) {
+        final NetworkStats stats = new NetworkStats(SystemClock.elapsedRealtime(), size);
+        final int uids = size / 2;
+        for (int i = 0; i < size; i++) {
+            final int appId = Process.FIRST_APPLICATION_UID + (i % uids) / 2;
+            final int userId = (i % uids) % 2 == 0 ? UserHandle.myUserId() : 10;
+            final int set = i < uids ? SET_DEFAULT : SET_FOREGROUND;
+            stats.addValues(NetworkStats.IFACE_ALL, UserHandle.getUid(userId, appId), set,
+                    TAG_NONE, 1024L * (i + 1), i + 1, 512L * (i + 1), i + 1, 0);
+        }
+        return stats;
+    }
+
+    /**
+     * Build an hourly history of the given number of buckets, ending now.
+     */
+    private static NetworkStatsHistory buildHistory(int size) {
+        final NetworkStatsHistory history = new NetworkStatsHistory(HOUR_IN_MILLIS, size);
+        final long end = System.currentTimeMillis() / HOUR_IN_MILLIS * HOUR_IN_MILLIS;
+        long time = end - HOUR_IN_MILLIS * size;
+        for (int i = 0; i < size; i++) {
+            final NetworkStats.Entry entry = new NetworkStats.Entry(
+                    1024L * (i % 24), i % 24, 512L * (i % 24), i % 24, 0);
+            history.recordData(time, time + HOUR_IN_MILLIS, entry);
+            time += HOUR_IN_MILLIS;
+        }
+        return history;
+    }
+
+    /**
+     * Session returning generated stats, where only the first
+     * {@link #SYSTEM_UIDS_WITH_HISTORY} uids of the item have any data.
+     */
+    private static class FakeStatsSession extends INetworkStatsSession.Stub {
+        private final AppItem mApp;
+        private final NetworkStatsHistory mHistory;
+
+        public int historyRequests;
+
+        public FakeStatsSession(AppItem app, int size) {
+            mApp = app;
+            mHistory = buildHistory(size);
+        }
+
+        @Override
+        public NetworkStats getSummaryForNetwork(NetworkTemplate template, long start,
+                long end) {
+            return new NetworkStats(SystemClock.elapsedRealtime(), 0);
+        }
+
+        @Override
+        public NetworkStatsHistory getHistoryForNetwork(NetworkTemplate template, int fields) {
+            return mHistory;
+        }
+
+        @Override
+        public NetworkStats getSummaryForAllUid(NetworkTemplate template, long start, long end,
+                boolean includeTags) {
+            final int size = mApp.uids.size();
+            final NetworkStats stats = new NetworkStats(SystemClock.elapsedRealtime(), size);
+            for (int i = 0; i < size; i++) {
+                final long bytes = i < SYSTEM_UIDS_WITH_HISTORY ? 1024 : 0;
+                stats.addValues(NetworkStats.IFACE_ALL, mApp.uids.keyAt(i), SET_DEFAULT,
+                        TAG_NONE, bytes, 1, bytes, 1, 0);
+            }
+            return stats;
+        }
+
+        @Override
+        public NetworkStatsHistory getHistoryForUid(NetworkTemplate template, int uid, int set,
+                int tag, int fields) {
+            historyRequests++;
+            return mHistory;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}